@@ -0,0 +1,113 @@
+import java.lang.management.ManagementFactory;
+
+/** Checks that the hot paths of training and generation stay within their allocation
+ *  budgets. The bytes that the current thread allocates are measured with
+ *  com.sun.management.ThreadMXBean.getThreadAllocatedBytes, after the code was run a few
+ *  times so that the JIT has compiled it. A test that exceeds its budget prints a report. */
+public class AllocationTester {
+
+    // Budget of LanguageModel.generate: the window substring of each character (window 7)
+    static final double GENERATE_BYTES_PER_CHAR = 64;
+
+    // Budget of QuantizedModel.generate into a builder with enough capacity
+    static final double QUANTIZED_BYTES_PER_CHAR = 0;
+
+    // Budget of LanguageModel.train (window 4): a key, a map entry, a List, a Node and a
+    // CharData for each new window, plus the window String of each character
+    static final double TRAIN_BYTES_PER_WINDOW = 400;
+    static final double TRAIN_BYTES_PER_CHAR = 64;
+
+    // Allocations of the measurement itself (the allocated bytes counter, the result string)
+    static final long SLACK = 4096;
+
+    public static void main(String[] args) {
+        String methodName = args[0];
+        boolean result = false;
+        switch (methodName) {
+            case "generate":
+                result = testGenerate();
+                break;
+            case "quantizedGenerate":
+                result = testQuantizedGenerate();
+                break;
+            case "train":
+                result = testTrain();
+                break;
+            case "all":
+                result = testGenerate();
+                result = testQuantizedGenerate() && result;
+                result = testTrain() && result;
+                break;
+            default:
+                break;
+        }
+        System.out.println("Test " + methodName + " result: " + (result ? "PASSED" : "FAILED"));
+    }
+
+    // Test method for the allocations of LanguageModel.generate
+    public static boolean testGenerate() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        int textLength = 20000;
+        for (int i = 0; i < 5; i++) model.generate("Natural", textLength);
+        long before = allocatedBytes();
+        String text = model.generate("Natural", textLength);
+        long bytes = allocatedBytes() - before;
+        // the result builder and the returned string are allowed
+        long budget = (long) (GENERATE_BYTES_PER_CHAR * text.length()) + 6L * text.length() + SLACK;
+        return check("generate", bytes, budget, (double) bytes / text.length() + " bytes per character");
+    }
+
+    // Test method for the allocations of QuantizedModel.generate
+    public static boolean testQuantizedGenerate() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        QuantizedModel quantized = new QuantizedModel(model, 20);
+        int textLength = 20000;
+        StringBuilder result = new StringBuilder(textLength + 16);
+        for (int i = 0; i < 5; i++) {
+            result.setLength(0);
+            quantized.generate("Natural", textLength, result);
+        }
+        result.setLength(0);
+        long before = allocatedBytes();
+        quantized.generate("Natural", textLength, result);
+        long bytes = allocatedBytes() - before;
+        long budget = (long) (QUANTIZED_BYTES_PER_CHAR * result.length()) + SLACK;
+        return check("quantizedGenerate", bytes, budget, (double) bytes / result.length() + " bytes per character");
+    }
+
+    // Test method for the allocations of LanguageModel.train
+    public static boolean testTrain() {
+        String corpus = "shakespeareinlove.txt";
+        for (int i = 0; i < 3; i++) new LanguageModel(4, 20).train(corpus);
+        LanguageModel model = new LanguageModel(4, 20);
+        long before = allocatedBytes();
+        model.train(corpus);
+        long bytes = allocatedBytes() - before;
+        long chars = 0;
+        for (String key : model.CharDataMap.keySet()) {
+            ListIterator itr = model.CharDataMap.get(key).listIterator(0);
+            while (itr.hasNext()) chars += itr.next().count;
+        }
+        int windows = model.CharDataMap.size();
+        long budget = (long) (TRAIN_BYTES_PER_WINDOW * windows + TRAIN_BYTES_PER_CHAR * chars) + SLACK;
+        return check("train", bytes, budget, windows + " windows, " + chars + " characters, "
+            + (double) bytes / chars + " bytes per character");
+    }
+
+    // Returns the number of bytes allocated by the current thread so far
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean check(String name, long bytes, long budget, String details) {
+        boolean res = bytes <= budget;
+        if (!res) {
+            System.out.println(name + " allocated " + bytes + " bytes, over its budget of " + budget + " bytes");
+            System.out.println("(" + details + ")");
+        }
+        return res;
+    }
+}
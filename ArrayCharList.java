@@ -0,0 +1,177 @@
+import java.util.Arrays;
+
+/** An array based list of character data.
+ *  Has the same API as List, but instead of a chain of Node objects that point to
+ *  CharData objects, it keeps the fields of its elements in parallel arrays of
+ *  characters, counters, probabilities and commulative probabilities, which are searched
+ *  by SuccessorSearch. No object is kept per element. The arrays grow by doubling.
+ *  The elements are stored in reverse order (the first element of the list is the last
+ *  element of the arrays), so that addFirst only appends.
+ *  Unlike List, getFirst, get, toArray and listIterator return new CharData objects that
+ *  hold copies of the fields of the elements, so changing them does not change the list.
+ *  charAt samples by the commulative probabilities that were computed by the last call
+ *  to calculateProbabilities. */
+public class ArrayCharList {
+
+    // The fields of the elements of this list.
+    // Element i of the list is stored at position size - 1 - i of the arrays.
+    char[] chr;
+    int[] count;
+    double[] p;
+    double[] cp;
+
+    // The number of elements in this list
+    private int size;
+
+    /** Constructs an empty list. */
+    public ArrayCharList() {
+        chr = new char[4];
+        count = new int[4];
+        p = new double[4];
+        cp = new double[4];
+        size = 0;
+    }
+
+    /** Returns the number of elements in this list. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the first element in the list */
+    public CharData getFirst() {
+        return get(0);
+    }
+
+    /** Adds a CharData object with the given character to the beginning of this list. */
+    public void addFirst(char c) {
+        if (size == chr.length) grow();
+        chr[size] = c;
+        count[size] = 1;
+        p[size] = 0;
+        cp[size] = 0;
+        size++;
+    }
+
+    /** Textual representation of this list. */
+    public String toString() {
+        StringBuilder s = new StringBuilder("(");
+        for (int i = size - 1; i >= 0; i--) {
+            s.append(element(i).toString());
+            if (i > 0) s.append(' ');
+        }
+        s.append(')');
+        return s.toString();
+    }
+
+    /** Returns the index of the first CharData object in this list
+     *  that has the same chr value as the given char,
+     *  or -1 if there is no such object in this list. */
+    public int indexOf(char c) {
+        int pos = position(c);
+        return pos == -1 ? -1 : size - 1 - pos;
+    }
+
+    /** If the given character exists in this list, increments its counter.
+     *  Otherwise, adds a new element with the given chr to the beginning of this list. */
+    public void update(char c) {
+        int pos = position(c);
+        if (pos == -1) {
+            addFirst(c);
+        } else {
+            count[pos]++;
+        }
+    }
+
+    /** If the given character exists in this list, removes it from the list and returns
+     *  true. Otherwise, returns false. */
+    public boolean remove(char c) {
+        int pos = position(c);
+        if (pos == -1) return false;
+        int moved = size - 1 - pos;
+        System.arraycopy(chr, pos + 1, chr, pos, moved);
+        System.arraycopy(count, pos + 1, count, pos, moved);
+        System.arraycopy(p, pos + 1, p, pos, moved);
+        System.arraycopy(cp, pos + 1, cp, pos, moved);
+        size--;
+        return true;
+    }
+
+    /** Returns a copy of the element at the specified index in this list.
+     *  If the index is negative or is greater than the size of this list,
+     *  throws an IndexOutOfBoundsException. */
+    public CharData get(int index) {
+        if (index < 0 || size <= index) {
+            throw new IndexOutOfBoundsException(index + " is out of bounds.");
+        }
+        return element(size - 1 - index);
+    }
+
+    /** Returns an array of CharData objects, containing copies of all the elements in this list. */
+    public CharData[] toArray() {
+        CharData[] arr = new CharData[size];
+        for (int i = 0; i < size; i++) {
+            arr[i] = element(size - 1 - i);
+        }
+        return arr;
+    }
+
+    /** Returns an iterator over the elements in this list, starting at the given index.
+     *  If the index is negative or is greater than the size of this list,
+     *  throws an IndexOutOfBoundsException. */
+    public ListIterator listIterator(int index) {
+        // If the list is empty, there is nothing to iterate
+        if (size == 0) return null;
+        if (index < 0 || size < index) {
+            throw new IndexOutOfBoundsException(index + " is out of bounds.");
+        }
+        Node first = null;
+        for (int pos = 0; pos <= size - 1 - index; pos++) {
+            first = new Node(element(pos), first);
+        }
+        return new ListIterator(first);
+    }
+
+    /** Computes and sets the probabilities (p and cp fields) of all the elements in this list. */
+    public void calculateProbabilities() {
+        int numOfLetters = 0;
+        for (int i = 0; i < size; i++) {
+            numOfLetters += count[i];
+        }
+        double comCP = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            p[i] = (double) count[i] / numOfLetters;
+            comCP += p[i];
+            cp[i] = comCP;
+        }
+    }
+
+    /** Returns the first character in this list whose commulative probability
+     *  is greater than the given number, or ' ' if there is no such character. */
+    public char charAt(double rand) {
+        int pos = SuccessorSearch.cpPosition(cp, size, rand);
+        return pos == -1 ? ' ' : chr[pos];
+    }
+
+    // Returns the array position of the given character, or -1.
+    private int position(char c) {
+        return SuccessorSearch.lastPosition(chr, size, c);
+    }
+
+    // Returns a new CharData object with the fields of the element at the given
+    // array position.
+    private CharData element(int pos) {
+        CharData cd = new CharData(chr[pos]);
+        cd.count = count[pos];
+        cd.p = p[pos];
+        cd.cp = cp[pos];
+        return cd;
+    }
+
+    private void grow() {
+        int capacity = chr.length * 2;
+        chr = Arrays.copyOf(chr, capacity);
+        count = Arrays.copyOf(count, capacity);
+        p = Arrays.copyOf(p, capacity);
+        cp = Arrays.copyOf(cp, capacity);
+    }
+}
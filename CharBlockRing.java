@@ -0,0 +1,111 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** A bounded ring of preallocated char blocks, which passes blocks of characters from
+ *  one producer thread to one consumer thread.
+ *  The producer fills the block returned by nextFree, and hands it over with publish.
+ *  The consumer gets the next filled block with nextFull, and returns it with release.
+ *  When all the blocks are full the producer waits, and when all are empty the consumer
+ *  waits. No blocks are allocated after construction. */
+public class CharBlockRing {
+
+    // The blocks of this ring, and the number of characters in each of them
+    private final char[][] blocks;
+    private final int[] lengths;
+
+    // The number of blocks that were published, and the number that were released
+    private long published;
+    private long released;
+
+    // True once the producer reached the end of the input
+    private boolean ended;
+
+    // The exception or error that stopped the producer
+    private Throwable failure;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    /** Constructs a ring of the given number of blocks, of blockSize characters each. */
+    public CharBlockRing(int numOfBlocks, int blockSize) {
+        blocks = new char[numOfBlocks][blockSize];
+        lengths = new int[numOfBlocks];
+    }
+
+    /** Returns the next block to fill. Waits while all the blocks are full.
+     *  Called by the producer. */
+    public char[] nextFree() throws InterruptedException {
+        lock.lock();
+        try {
+            while (published - released == blocks.length) notFull.await();
+            return blocks[(int) (published % blocks.length)];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Hands over the block returned by nextFree, which holds len characters.
+     *  Called by the producer. */
+    public void publish(int len) {
+        lock.lock();
+        try {
+            lengths[(int) (published % blocks.length)] = len;
+            published++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Tells the consumer that no more blocks will be published. If failure is not null,
+     *  the consumer throws it (a checked exception is thrown wrapped in an
+     *  IllegalStateException). Called by the producer. */
+    public void end(Throwable failure) {
+        lock.lock();
+        try {
+            this.failure = failure;
+            ended = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the index of the next filled block, or -1 if the input has ended.
+     *  Waits while all the blocks are empty. Called by the consumer. */
+    public int nextFull() throws InterruptedException {
+        lock.lock();
+        try {
+            while (published == released && !ended) notEmpty.await();
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+            if (failure != null) throw new IllegalStateException("the producer failed", failure);
+            if (published == released) return -1;
+            return (int) (released % blocks.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the block with the given index. */
+    public char[] block(int index) {
+        return blocks[index];
+    }
+
+    /** Returns the number of characters in the block with the given index. */
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /** Returns the block returned by nextFull to the producer. Called by the consumer. */
+    public void release() {
+        lock.lock();
+        try {
+            released++;
+            notFull.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/** Classifies texts by the language model that gives them the highest likelihood.
+ *  Each model is added with a label (for example, the name of its corpus). A text is read
+ *  once: a single window of the longest window length slides over it, and every model
+ *  scores each character by the part of that window that it uses.
+ *  A character that a model can not score (an unseen context or an unseen character)
+ *  costs UNSEEN_LOG_PROB nats, so that models are not rewarded for not knowing the text.
+ *  Many texts are classified in parallel, one text per task.
+ *  The texts are scored as they are given: they are not normalized by the normalizers of
+ *  the models (a single window could not serve models that normalize differently), so
+ *  normalize them before classifying them if the models were trained with normalizers. */
+public class Classifier {
+
+    // The log probability given to a character that a model can not score
+    static final double UNSEEN_LOG_PROB = Math.log(1.0 / 65536);
+
+    // The labels, models and scorers of this classifier
+    private final ArrayList<String> labels = new ArrayList<String>();
+    private final ArrayList<Integer> windowLengths = new ArrayList<Integer>();
+    private final ArrayList<Scorer> scorers = new ArrayList<Scorer>();
+
+    // The longest window length of the models
+    private int maxWindowLength;
+
+    // The fraction of each corpus that main holds out of training, to classify
+    static final double HOLDOUT = 0.1;
+
+    /** The likelihood of a text under one of the models. */
+    public static class Result {
+
+        // The label of the model
+        public final String label;
+
+        // The score of the text under the model
+        public final Score score;
+
+        // The log likelihood of the text, including the cost of the unscored characters
+        public final double logLikelihood;
+
+        Result(String label, Score score) {
+            this.label = label;
+            this.score = score;
+            this.logLikelihood = score.logProbability()
+                + (score.getUnseenContexts() + score.getUnseenChars()) * UNSEEN_LOG_PROB;
+        }
+
+        /** Returns a textual representation of this result. */
+        public String toString() {
+            return "(" + label + " " + logLikelihood + ")";
+        }
+    }
+
+    /** Adds the given (trained) model to this classifier, with the given label. */
+    public void add(String label, LanguageModel model) {
+        labels.add(label);
+        windowLengths.add(model.windowLength);
+        scorers.add(new Scorer(model));
+        maxWindowLength = Math.max(maxWindowLength, model.windowLength);
+    }
+
+    /** Returns the results of all the models on the given text, from the most
+     *  likely model to the least likely one. */
+    public Result[] classify(String text) {
+        return classify(new StringReader(text));
+    }
+
+    /** Returns the results of all the models on the text read from the given reader,
+     *  from the most likely model to the least likely one. */
+    public Result[] classify(Reader in) {
+        int numOfModels = scorers.size();
+        int[] lengths = new int[numOfModels];
+        Score[] scores = new Score[numOfModels];
+        for (int m = 0; m < numOfModels; m++) {
+            lengths[m] = windowLengths.get(m);
+            scores[m] = new Score();
+        }
+        // the window holds the last maxWindowLength characters, aligned to its end
+        char[] window = new char[maxWindowLength];
+        // the view of the window that each model uses
+        CharBuffer[] keys = new CharBuffer[numOfModels];
+        for (int m = 0; m < numOfModels; m++) {
+            keys[m] = CharBuffer.wrap(window, maxWindowLength - lengths[m], lengths[m]);
+        }
+        int filled = 0;
+        char[] buf = new char[1 << 12];
+        try {
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    char c = buf[i];
+                    for (int m = 0; m < numOfModels; m++) {
+                        if (filled < lengths[m]) continue;
+                        scorers.get(m).scoreChar(keys[m], c, scores[m]);
+                    }
+                    if (maxWindowLength > 0) {
+                        System.arraycopy(window, 1, window, 0, maxWindowLength - 1);
+                        window[maxWindowLength - 1] = c;
+                    }
+                    if (filled < maxWindowLength) filled++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Result[] results = new Result[numOfModels];
+        for (int m = 0; m < numOfModels; m++) {
+            results[m] = new Result(labels.get(m), scores[m]);
+        }
+        Arrays.sort(results, (a, b) -> Double.compare(b.logLikelihood, a.logLikelihood));
+        return results;
+    }
+
+    /** Classifies all the given texts, in parallel, and returns the label of the most
+     *  likely model of each text. */
+    public String[] classifyAll(String[] texts) {
+        String[] best = new String[texts.length];
+        IntStream.range(0, texts.length).parallel().forEach(i -> best[i] = classify(texts[i])[0].label);
+        return best;
+    }
+
+    /** Trains a model on the first part of each of the given corpora, cuts the held out
+     *  rest of the corpora (the last HOLDOUT of each) into documents of the given length,
+     *  classifies all the documents, and prints the accuracy and the throughput of the
+     *  classifier.
+     *  Usage: java Classifier windowLength documentLength corpus1 corpus2 ... */
+    public static void main(String[] args) {
+        int windowLength = Integer.parseInt(args[0]);
+        int documentLength = Integer.parseInt(args[1]);
+        Classifier classifier = new Classifier();
+        ArrayList<String> documents = new ArrayList<String>();
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 2; i < args.length; i++) {
+            String corpus = new In(args[i]).readAll();
+            int trainLength = (int) (corpus.length() * (1 - HOLDOUT));
+            LanguageModel model = new LanguageModel(windowLength);
+            model.train(new StringReader(corpus.substring(0, trainLength)));
+            classifier.add(args[i], model);
+            for (int j = trainLength; j + documentLength <= corpus.length(); j += documentLength) {
+                documents.add(corpus.substring(j, j + documentLength));
+                expected.add(args[i]);
+            }
+        }
+        String[] texts = documents.toArray(new String[0]);
+        classifier.classifyAll(texts); // warms up the JIT
+        long start = System.nanoTime();
+        String[] labels = classifier.classifyAll(texts);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int correct = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i].equals(expected.get(i))) correct++;
+        }
+        System.out.println(texts.length + " documents, accuracy " + (double) correct / texts.length
+            + ", " + (long) (texts.length / seconds) + " documents/sec");
+    }
+}
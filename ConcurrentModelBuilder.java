@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Builds one language model from corpora that are counted by many threads at once.
+ *  The windows are kept in a ConcurrentHashMap. The successors of a window are kept in an
+ *  immutable snapshot (their characters, and a LongAdder counter for each of them) that
+ *  is replaced when a new successor is added. Counting a successor that was already seen
+ *  takes no lock: it finds the counter in the current snapshot and increments it. Only
+ *  adding a new successor to a window locks that window.
+ *  When all the threads are done, build creates the model and computes its probabilities.
+ *  A corpus that is counted by a single thread gives the same lists as train. */
+public class ConcurrentModelBuilder {
+
+    // The windows, and their successors
+    private final ConcurrentHashMap<String, Successors> table = new ConcurrentHashMap<String, Successors>();
+
+    // The window length of the built model
+    private final int windowLength;
+
+    // Normalizes the texts before they are counted, or null
+    private final Normalizer normalizer;
+
+    // The successors of a window, in the order in which they were first counted
+    private static class Successors {
+        // The current snapshot. A new snapshot keeps the counters of the old one,
+        // so increments of the old snapshot are not lost.
+        private volatile Snapshot snapshot = new Snapshot(new char[0], new LongAdder[0]);
+
+        void increment(char c) {
+            LongAdder counter = find(snapshot, c);
+            if (counter == null) {
+                synchronized (this) {
+                    Snapshot current = snapshot;
+                    counter = find(current, c);
+                    if (counter == null) {
+                        int n = current.chars.length;
+                        char[] chars = Arrays.copyOf(current.chars, n + 1);
+                        LongAdder[] counters = Arrays.copyOf(current.counters, n + 1);
+                        chars[n] = c;
+                        counters[n] = counter = new LongAdder();
+                        snapshot = new Snapshot(chars, counters);
+                    }
+                }
+            }
+            counter.increment();
+        }
+
+        private static LongAdder find(Snapshot snapshot, char c) {
+            char[] chars = snapshot.chars;
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) return snapshot.counters[i];
+            }
+            return null;
+        }
+    }
+
+    private static class Snapshot {
+        final char[] chars;
+        final LongAdder[] counters;
+
+        Snapshot(char[] chars, LongAdder[] counters) {
+            this.chars = chars;
+            this.counters = counters;
+        }
+    }
+
+    /** Constructs a builder of a model with the given window length. */
+    public ConcurrentModelBuilder(int windowLength) {
+        this(windowLength, null);
+    }
+
+    /** Constructs a builder of a model with the given window length, that normalizes the
+     *  texts with the given normalizer (or not, if it is null), and builds a model that
+     *  normalizes with it. Each text is normalized on its own, so threads share the
+     *  normalizer. */
+    public ConcurrentModelBuilder(int windowLength, Normalizer normalizer) {
+        this.windowLength = windowLength;
+        this.normalizer = normalizer;
+    }
+
+    /** Counts the text in the given file, like LanguageModel.train.
+     *  May be called by many threads at once. */
+    public void train(String fileName) {
+        try (Reader in = CorpusCounter.open(fileName)) {
+            train(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Counts the text read from the given reader, like LanguageModel.train.
+     *  May be called by many threads at once. */
+    public void train(Reader in) throws IOException {
+        CorpusCounter counter = new CorpusCounter(null, windowLength) {
+            protected void countWindow(String key, char c) {
+                Successors successors = table.get(key);
+                if (successors == null) successors = table.computeIfAbsent(key, k -> new Successors());
+                successors.increment(c);
+            }
+        };
+        counter.setNormalizer(normalizer);
+        char[] buf = new char[1 << 14];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            counter.accept(buf, 0, n);
+        }
+        counter.finish();
+    }
+
+    /** Returns a model with the counts of all the texts that were counted, and computes its
+     *  probabilities. Must be called when no thread is counting. */
+    public LanguageModel build(int seed) {
+        LanguageModel model = new LanguageModel(windowLength, seed);
+        model.normalizeWith(normalizer);
+        HashMap<String, List> map = model.CharDataMap;
+        for (String key : table.keySet()) {
+            Snapshot snapshot = table.get(key).snapshot;
+            List probs = new List();
+            for (int i = 0; i < snapshot.chars.length; i++) {
+                probs.addFirst(snapshot.chars[i]);
+                probs.getFirst().count = snapshot.counters[i].intValue();
+            }
+            map.put(key, probs);
+        }
+        model.computeProbabilities();
+        return model;
+    }
+}
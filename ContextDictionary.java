@@ -0,0 +1,146 @@
+import java.util.Arrays;
+
+/** A read only, sorted dictionary of windows (contexts) of the same length.
+ *  The windows are sorted and front coded in blocks of BLOCK_SIZE windows: the first
+ *  window of a block is stored in full, and each of the other windows is stored as the
+ *  length of the prefix that it shares with the previous window, followed by the rest of
+ *  its characters. All the blocks are kept in one char array.
+ *  Looking up a window is a binary search over the first windows of the blocks, followed
+ *  by a scan of one block, and gives the rank of the window (its index in sorted order).
+ *  The rank can index arrays that hold the data of the windows. */
+public class ContextDictionary {
+
+    // The number of windows in a block
+    static final int BLOCK_SIZE = 16;
+
+    // The front coded blocks
+    private final char[] data;
+
+    // The position in data at which each block starts
+    private final int[] blockStart;
+
+    // The number of windows, and their length
+    private final int size;
+    private final int windowLength;
+
+    /** Constructs a dictionary of the given windows, which must all have the given length.
+     *  The order of the given array does not matter; it is sorted by this constructor. */
+    public ContextDictionary(String[] windows, int windowLength) {
+        String[] keys = windows.clone();
+        Arrays.sort(keys);
+        this.size = keys.length;
+        this.windowLength = windowLength;
+        this.blockStart = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        // every window takes at most its characters and a shared prefix length
+        long capacity = (long) size * ((long) windowLength + 1);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(size + " windows of length " + windowLength
+                + " need " + capacity + " chars, more than an array can hold");
+        }
+        char[] buf = new char[Math.max(16, (int) capacity)];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            String key = keys[i];
+            if (key.length() != windowLength) {
+                throw new IllegalArgumentException("window \"" + key + "\" is not of length " + windowLength);
+            }
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockStart[i / BLOCK_SIZE] = length;
+            } else {
+                String previous = keys[i - 1];
+                while (shared < windowLength && key.charAt(shared) == previous.charAt(shared)) shared++;
+                buf[length++] = (char) shared;
+            }
+            key.getChars(shared, windowLength, buf, length);
+            length += windowLength - shared;
+        }
+        this.data = Arrays.copyOf(buf, length);
+    }
+
+    /** Returns the number of windows in this dictionary. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the rank of the given window, or -1 if it is not in this dictionary. */
+    public int rank(String window) {
+        if (window.length() != windowLength) return -1;
+        return rank(window, 0);
+    }
+
+    /** Returns the rank of the window that starts at position from of the given text,
+     *  or -1 if it is not in this dictionary. */
+    public int rank(CharSequence text, int from) {
+        // finds the last block whose first window is not greater than the given window
+        int lo = 0;
+        int hi = blockStart.length - 1;
+        if (hi < 0 || compare(blockStart[0], text, from) > 0) return -1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (compare(blockStart[mid], text, from) <= 0) lo = mid;
+            else hi = mid - 1;
+        }
+        // scans the block. matched is the length of the common prefix of the given window
+        // and the current window, which is smaller than the given window.
+        int position = blockStart[lo];
+        int matched = 0;
+        while (matched < windowLength && data[position + matched] == text.charAt(from + matched)) matched++;
+        if (matched == windowLength) return lo * BLOCK_SIZE;
+        position += windowLength;
+        int last = Math.min(size, (lo + 1) * BLOCK_SIZE);
+        for (int i = lo * BLOCK_SIZE + 1; i < last; i++) {
+            int shared = data[position++];
+            int suffix = windowLength - shared;
+            if (shared < matched) return -1; // this window is greater than the given window
+            if (shared == matched) {
+                int j = 0;
+                while (matched < windowLength && data[position + j] == text.charAt(from + matched)) {
+                    matched++;
+                    j++;
+                }
+                if (matched == windowLength) return i;
+                if (data[position + j] > text.charAt(from + matched)) return -1;
+            }
+            position += suffix;
+        }
+        return -1;
+    }
+
+    /** Returns the window with the given rank. */
+    public String window(int rank) {
+        if (rank < 0 || size <= rank) {
+            throw new IndexOutOfBoundsException(rank + " is out of bounds.");
+        }
+        char[] key = new char[windowLength];
+        int position = blockStart[rank / BLOCK_SIZE];
+        System.arraycopy(data, position, key, 0, windowLength);
+        position += windowLength;
+        for (int i = rank / BLOCK_SIZE * BLOCK_SIZE + 1; i <= rank; i++) {
+            int shared = data[position++];
+            System.arraycopy(data, position, key, shared, windowLength - shared);
+            position += windowLength - shared;
+        }
+        return new String(key);
+    }
+
+    /** Returns the number of bytes that this dictionary takes (arrays and object headers). */
+    public long bytes() {
+        return 24 + 16 + 2L * data.length + 16 + 4L * blockStart.length;
+    }
+
+    /** Returns the estimated number of bytes that a window of the given length takes as a
+     *  key of a HashMap: a String, its char array, a map entry and a table slot. */
+    public static long hashMapBytes(int windowLength) {
+        return 24 + 16 + 2L * windowLength + 32 + 8;
+    }
+
+    // Compares the full window stored at the given position with the window of the given text.
+    private int compare(int position, CharSequence text, int from) {
+        for (int i = 0; i < windowLength; i++) {
+            int c = data[position + i] - text.charAt(from + i);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/** Counts the windows of a corpus, and the characters that follow them, into a map
+ *  of a language model. The corpus is given in pieces, in order, and is counted exactly
+ *  like LanguageModel.train counts it: the first windowLength characters form the first
+ *  window, and the characters after the last non whitespace character are not counted.
+ *  (Whitespace characters are therefore held back until a non whitespace character
+ *  arrives, and are dropped by finish.) */
+public class CorpusCounter {
+
+    // The map into which the windows are counted
+    private final HashMap<String, List> map;
+
+    // The window length
+    private final int windowLength;
+
+    // The current window, and the number of its characters that were already read
+    private final char[] window;
+    private int filled;
+
+    // Whitespace characters that were read, but not counted yet
+    private final StringBuilder pending = new StringBuilder();
+
+    // Normalizes the characters before they are counted, or null
+    private Normalizer.Cursor normalizer;
+
+    /** Constructs a counter that counts into the given map, with the given window length.
+     *  The map may be null if countWindow is overridden. */
+    public CorpusCounter(HashMap<String, List> map, int windowLength) {
+        this.map = map;
+        this.windowLength = windowLength;
+        this.window = new char[windowLength];
+    }
+
+    /** Opens the given corpus file for reading. A file whose name ends with .gz is
+     *  decompressed while it is read.
+     *  @throws IllegalArgumentException if the file can not be opened */
+    public static Reader open(String fileName) {
+        try {
+            return new InputStreamReader(
+                In.gunzipIfNeeded(fileName, new FileInputStream(fileName)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not open " + fileName, e);
+        }
+    }
+
+    /** Makes this counter normalize every character of the corpus with the given
+     *  normalizer before counting it, from the next character on, as the start of a new
+     *  text; or stops normalizing if it is null. */
+    public void setNormalizer(Normalizer normalizer) {
+        this.normalizer = (normalizer == null) ? null : normalizer.cursor();
+    }
+
+    /** Sets the current window to the given characters, as if they were the first
+     *  characters of the corpus. Used when the corpus is counted in several pieces,
+     *  to start a piece with the window that precedes it. */
+    public void prime(char[] chars) {
+        System.arraycopy(chars, 0, window, 0, windowLength);
+        filled = windowLength;
+    }
+
+    /** Counts the next len characters of the corpus, which are given in buf, starting at off. */
+    public void accept(char[] buf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            accept(buf[i]);
+        }
+    }
+
+    /** Counts the next character of the corpus. */
+    public void accept(char c) {
+        if (normalizer != null) {
+            int normalized = normalizer.apply(c);
+            if (normalized == Normalizer.DROP) return;
+            c = (char) normalized;
+        }
+        if (filled < windowLength) {
+            window[filled++] = c;
+            return;
+        }
+        if (Character.isWhitespace(c)) {
+            pending.append(c);
+            return;
+        }
+        flush();
+        count(c);
+    }
+
+    /** Counts the whitespace characters that were held back. Used at the end of a piece
+     *  of the corpus that is followed by a non whitespace character. */
+    public void flush() {
+        for (int i = 0; i < pending.length(); i++) {
+            count(pending.charAt(i));
+        }
+        pending.setLength(0);
+    }
+
+    /** Ends the corpus. The whitespace characters at its end are not counted. */
+    public void finish() {
+        pending.setLength(0);
+    }
+
+    /** Counts c as a successor of the given window. Subclasses that count into
+     *  another kind of table override this method. */
+    protected void countWindow(String key, char c) {
+        List probs = map.get(key);
+        if (probs == null) {
+            probs = new List();
+            map.put(key, probs);
+        }
+        probs.update(c);
+    }
+
+    // Counts c as a successor of the current window, and moves the window fowards by 1 character
+    private void count(char c) {
+        countWindow(new String(window), c);
+        if (windowLength > 0) {
+            System.arraycopy(window, 1, window, 0, windowLength - 1);
+            window[windowLength - 1] = c;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Publishes a random text generated by a language model, in chunks, to subscribers that
+ *  may read it at different speeds.
+ *  Each subscriber gets its own text: the initial text, followed by chunks of at most
+ *  chunkSize generated characters, so that the chunks together are what
+ *  LanguageModel.generate(initialText, textLength) would return (so the initial text is
+ *  normalized by the normalizer of the model, if it has one). A chunk is generated only
+ *  when the subscriber has requested it, so generation never runs ahead of the subscriber,
+ *  and a stream holds no more than one window and one chunk. onComplete is sent right
+ *  after the last chunk, without waiting for more demand. Cancelling a subscription
+ *  stops its generation. All the signals to a subscriber, including the error of a
+ *  non-positive request, are sent by its drain loop, one at a time. If onNext throws,
+ *  the subscription is cancelled and the exception is sent to onError. */
+public class GenerationPublisher implements Flow.Publisher<CharSequence> {
+
+    // The model that generates the texts
+    private final LanguageModel model;
+
+    // The initial text, the number of characters to generate, and the chunk size
+    private final String initialText;
+    private final int textLength;
+    private final int chunkSize;
+
+    // Runs the generation of the subscriptions
+    private final Executor executor;
+
+    /** Constructs a publisher of texts that the given model generates, using the
+     *  common ForkJoinPool. */
+    public GenerationPublisher(LanguageModel model, String initialText, int textLength, int chunkSize) {
+        this(model, initialText, textLength, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    /** Constructs a publisher of texts that the given model generates, using the given executor. */
+    public GenerationPublisher(LanguageModel model, String initialText, int textLength, int chunkSize,
+                               Executor executor) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunk size must be positive");
+        this.model = model;
+        this.initialText = initialText;
+        this.textLength = textLength;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+    }
+
+    public void subscribe(Flow.Subscriber<? super CharSequence> subscriber) {
+        if (subscriber == null) throw new NullPointerException("subscriber is null");
+        Generation generation = new Generation(subscriber);
+        subscriber.onSubscribe(generation);
+    }
+
+    // The generation of the text of one subscriber
+    private class Generation implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super CharSequence> subscriber;
+
+        // The chunks that were requested and not yet sent
+        private final AtomicLong demand = new AtomicLong();
+
+        // The number of pending runs of the drain loop; only one runs at a time
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled;
+
+        // The error of a non-positive request, sent by the drain loop
+        private volatile Throwable error;
+
+        // The last windowLength characters of the text; null until the initial text was sent
+        private StringBuilder window;
+
+        // The successors of the window, or null if the window was not seen in the corpus
+        private List options;
+
+        // The number of characters generated so far
+        private int generated;
+
+        private boolean done;
+
+        Generation(Flow.Subscriber<? super CharSequence> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+                schedule();
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n;
+                if (next < 0) next = Long.MAX_VALUE; // demand is unbounded
+            } while (!demand.compareAndSet(current, next));
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) executor.execute(this);
+        }
+
+        // Sends chunks while there is demand, and onComplete after the last one
+        public void run() {
+            int missed = 1;
+            do {
+                while (!cancelled && !done) {
+                    if (error != null) {
+                        done = true;
+                        subscriber.onError(error);
+                        return;
+                    }
+                    if (demand.get() == 0) break;
+                    CharSequence chunk;
+                    boolean last;
+                    try {
+                        chunk = nextChunk();
+                        last = isComplete();
+                    } catch (RuntimeException e) {
+                        done = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(chunk);
+                    } catch (Throwable e) {
+                        // the subscriber broke the rules (Flow spec 2.13): stops sending it chunks
+                        cancel();
+                        done = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+                    if (last) {
+                        done = true;
+                        if (!cancelled) subscriber.onComplete();
+                        return;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        // Returns the next chunk of the text (called only while the text is not complete)
+        private CharSequence nextChunk() {
+            int windowLength = model.windowLength;
+            if (window == null) {
+                Normalizer normalizer = model.getNormalizer();
+                String text = (normalizer == null) ? initialText : normalizer.normalize(initialText);
+                window = new StringBuilder(text.substring(Math.max(0, text.length() - windowLength)));
+                if (text.length() < windowLength) generated = textLength; // nothing to generate
+                else options = model.CharDataMap.get(window.toString());
+                return text;
+            }
+            StringBuilder chunk = new StringBuilder(chunkSize);
+            while (chunk.length() < chunkSize && !isComplete()) {
+                char c = model.getRandomChar(options);
+                chunk.append(c);
+                generated++;
+                if (windowLength > 0) {
+                    window.deleteCharAt(0);
+                    window.append(c);
+                }
+                // looks the new window up once, for the next character and for isComplete
+                if (generated < textLength) options = model.CharDataMap.get(window.toString());
+            }
+            return chunk;
+        }
+
+        // Returns true if all the text was sent: textLength characters were generated, or
+        // the window was not seen in the corpus (so generate would stop there)
+        private boolean isComplete() {
+            return generated >= textLength || options == null;
+        }
+    }
+}
@@ -8,19 +8,27 @@
  ******************************************************************************/
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.Socket;
 import java.net.URLConnection;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 /**
  *  <i>Input</i>. This class provides methods for reading strings
@@ -75,12 +83,18 @@ public final class In {
 
     private Scanner scanner;
 
+    // the source of the scanner, if this input stream was opened from a stream;
+    // read directly by the bulk methods, as long as the scanner has not read from it
+    private Reader reader;
+
+    // true once the scanner has read from the reader (and may hold buffered input)
+    private boolean scannerRead;
+
    /**
      * Initializes an input stream from standard input.
      */
     public In() {
-        scanner = new Scanner(new BufferedInputStream(System.in), CHARSET_NAME);
-        scanner.useLocale(LOCALE);
+        open(new BufferedInputStream(System.in));
     }
 
    /**
@@ -94,8 +108,7 @@ public final class In {
         if (socket == null) throw new IllegalArgumentException("socket argument is null");
         try {
             InputStream is = socket.getInputStream();
-            scanner = new Scanner(new BufferedInputStream(is), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            open(new BufferedInputStream(is));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + socket, ioe);
@@ -114,8 +127,7 @@ public final class In {
         try {
             URLConnection site = url.openConnection();
             InputStream is     = site.getInputStream();
-            scanner            = new Scanner(new BufferedInputStream(is), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            open(new BufferedInputStream(is));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + url, ioe);
@@ -134,9 +146,8 @@ public final class In {
         try {
             // for consistency with StdIn, wrap with BufferedInputStream instead of use
             // file as argument to Scanner
-            FileInputStream fis = new FileInputStream(file);
-            scanner = new Scanner(new BufferedInputStream(fis), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            InputStream fis = gunzipIfNeeded(file.getName(), new FileInputStream(file));
+            open(new BufferedInputStream(fis));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + file, ioe);
@@ -161,9 +172,8 @@ public final class In {
             if (file.exists()) {
                 // for consistency with StdIn, wrap with BufferedInputStream instead of use
                 // file as argument to Scanner
-                FileInputStream fis = new FileInputStream(file);
-                scanner = new Scanner(new BufferedInputStream(fis), CHARSET_NAME);
-                scanner.useLocale(LOCALE);
+                InputStream fis = gunzipIfNeeded(name, new FileInputStream(file));
+                open(new BufferedInputStream(fis));
                 return;
             }
 
@@ -186,15 +196,48 @@ public final class In {
             // HttpURLConnection site = (HttpURLConnection) url.openConnection();
             // site.addRequestProperty("User-Agent", "Mozilla/4.76");
 
-            InputStream is     = site.getInputStream();
-            scanner            = new Scanner(new BufferedInputStream(is), CHARSET_NAME);
-            scanner.useLocale(LOCALE);
+            InputStream is     = gunzipIfNeeded(url.getPath(), site.getInputStream());
+            open(new BufferedInputStream(is));
         }
         catch (IOException ioe) {
             throw new IllegalArgumentException("Could not open " + name, ioe);
         }
     }
 
+    /**
+     * Returns a stream that decompresses the given stream, if the given name
+     * ends with {@code .gz}; otherwise, returns the given stream.
+     * Concatenated gzip members are read one after the other.
+     *
+     * @param  name the name of the file or URL
+     * @param  is the stream of the file or URL
+     * @return the (decompressed) stream
+     * @throws IOException if {@code is} is not in gzip format
+     */
+    static InputStream gunzipIfNeeded(String name, InputStream is) throws IOException {
+        if (!name.endsWith(".gz")) return is;
+        return new GZIPInputStream(is, 1 << 16);
+    }
+
+    // opens the scanner, and the reader of the bulk methods, on the given stream
+    private void open(InputStream is) {
+        reader = new InputStreamReader(is, Charset.forName(CHARSET_NAME));
+        scanner = new Scanner(new ScannerSource());
+        scanner.useLocale(LOCALE);
+    }
+
+    // the source of the scanner: notes that the scanner has read from the reader
+    private final class ScannerSource implements Readable, Closeable {
+        public int read(CharBuffer cb) throws IOException {
+            scannerRead = true;
+            return reader.read(cb);
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
     /**
      * Initializes an input stream from a given {@link Scanner} source; use with
      * {@code new Scanner(String)} to read from a string.
@@ -301,6 +344,84 @@ public final class In {
     }
 
 
+   /**
+     * Reads up to {@code len} characters from this input stream into
+     * {@code buf}, starting at {@code buf[off]}, and returns the number of
+     * characters read, or -1 if the input stream is empty.
+     * Unlike {@link #readChar()}, this method does not use the scanner
+     * (unless the scanner was already used to read from this input stream),
+     * so it reads at the speed of a buffered reader.
+     *
+     * @param  buf the buffer
+     * @param  off the position in {@code buf} of the first character read
+     * @param  len the maximal number of characters to read
+     * @return the number of characters read, or -1 at the end of the input stream
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    public int readChars(char[] buf, int off, int len) {
+        if (off < 0 || len < 0 || len > buf.length - off) throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (reader != null && !scannerRead) {
+            try {
+                return reader.read(buf, off, len);
+            }
+            catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        // the scanner may hold buffered input, so read it through the scanner
+        int n = 0;
+        while (n < len && hasNextChar()) {
+            buf[off + n++] = readChar();
+        }
+        return (n == 0) ? -1 : n;
+    }
+
+   /**
+     * Reads characters from this input stream into the given buffer, and
+     * returns the number of characters read, or -1 if the input stream is empty.
+     *
+     * @param  target the buffer
+     * @return the number of characters read, or -1 at the end of the input stream
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    public int readChars(CharBuffer target) {
+        int len = target.remaining();
+        if (target.hasArray()) {
+            int n = readChars(target.array(), target.arrayOffset() + target.position(), len);
+            if (n > 0) target.position(target.position() + n);
+            return n;
+        }
+        char[] buf = new char[Math.min(len, 8192)];
+        int n = readChars(buf, 0, buf.length);
+        if (n > 0) target.put(buf, 0, n);
+        return n;
+    }
+
+   /**
+     * Returns a {@link Reader} view of the remainder of this input stream,
+     * which reads with {@link #readChars(char[], int, int)}.
+     * Closing the reader closes this input stream.
+     *
+     * @return a reader of this input stream
+     */
+    public Reader reader() {
+        return new Reader() {
+            public int read(char[] buf, int off, int len) throws IOException {
+                try {
+                    return readChars(buf, off, len);
+                }
+                catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+
+            public void close() {
+                In.this.close();
+            }
+        };
+    }
+
    /**
      * Reads and returns the remainder of this input stream, as a string.
      *
@@ -505,15 +626,15 @@ public final class In {
      * @return all remaining tokens in this input stream, as an array of strings
      */
     public String[] readAllStrings() {
-        // we could use readAll.trim().split(), but that's not consistent
-        // since trim() uses characters 0x00..0x20 as whitespace
-        String[] tokens = WHITESPACE_PATTERN.split(readAll());
-        if (tokens.length == 0 || tokens[0].length() > 0)
-            return tokens;
-        String[] decapitokens = new String[tokens.length-1];
-        for (int i = 0; i < tokens.length-1; i++)
-            decapitokens[i] = tokens[i+1];
-        return decapitokens;
+        // tokens are separated by Character.isWhitespace() characters, like
+        // WHITESPACE_PATTERN; the input is scanned once, in blocks (see Tokenizer)
+        Tokenizer tokenizer = new Tokenizer();
+        StringBuilder token = new StringBuilder();
+        ArrayList<String> tokens = new ArrayList<String>();
+        while (tokenizer.nextToken(token)) {
+            tokens.add(token.toString());
+        }
+        return tokens.toArray(new String[0]);
     }
 
     /**
@@ -523,10 +644,22 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of strings
      */
     public String[] readAllLines() {
+        // lines end with \n, \r\n, \r, \u2028, \u2029 or \u0085, like Scanner.nextLine()
+        Tokenizer tokenizer = new Tokenizer();
+        StringBuilder line = new StringBuilder();
         ArrayList<String> lines = new ArrayList<String>();
-        while (hasNextLine()) {
-            lines.add(readLine());
+        int c;
+        while ((c = tokenizer.read()) != -1) {
+            if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085') {
+                if (c == '\r' && tokenizer.peek() == '\n') tokenizer.read();
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+            else {
+                line.append((char) c);
+            }
         }
+        if (line.length() > 0) lines.add(line.toString());
         return lines.toArray(new String[0]);
     }
 
@@ -538,11 +671,18 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of integers
      */
     public int[] readAllInts() {
-        String[] fields = readAllStrings();
-        int[] vals = new int[fields.length];
-        for (int i = 0; i < fields.length; i++)
-            vals[i] = Integer.parseInt(fields[i]);
-        return vals;
+        Tokenizer tokenizer = new Tokenizer();
+        StringBuilder token = new StringBuilder();
+        int[] vals = new int[16];
+        int n = 0;
+        while (tokenizer.nextToken(token)) {
+            long val = parseLong(token);
+            if (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE || val == NOT_PARSED)
+                val = Integer.parseInt(token.toString());
+            if (n == vals.length) vals = Arrays.copyOf(vals, 2 * n);
+            vals[n++] = (int) val;
+        }
+        return Arrays.copyOf(vals, n);
     }
 
     /**
@@ -552,11 +692,17 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of longs
      */
     public long[] readAllLongs() {
-        String[] fields = readAllStrings();
-        long[] vals = new long[fields.length];
-        for (int i = 0; i < fields.length; i++)
-            vals[i] = Long.parseLong(fields[i]);
-        return vals;
+        Tokenizer tokenizer = new Tokenizer();
+        StringBuilder token = new StringBuilder();
+        long[] vals = new long[16];
+        int n = 0;
+        while (tokenizer.nextToken(token)) {
+            long val = parseLong(token);
+            if (val == NOT_PARSED) val = Long.parseLong(token.toString());
+            if (n == vals.length) vals = Arrays.copyOf(vals, 2 * n);
+            vals[n++] = val;
+        }
+        return Arrays.copyOf(vals, n);
     }
 
     /**
@@ -566,11 +712,86 @@ public final class In {
      * @return all remaining lines in this input stream, as an array of doubles
      */
     public double[] readAllDoubles() {
-        String[] fields = readAllStrings();
-        double[] vals = new double[fields.length];
-        for (int i = 0; i < fields.length; i++)
-            vals[i] = Double.parseDouble(fields[i]);
-        return vals;
+        Tokenizer tokenizer = new Tokenizer();
+        StringBuilder token = new StringBuilder();
+        double[] vals = new double[16];
+        int n = 0;
+        while (tokenizer.nextToken(token)) {
+            long val = parseLong(token);
+            // an integer token is parsed directly, unless it is -0 (which is -0.0)
+            boolean exact = val != NOT_PARSED && Math.abs(val) < (1L << 53) && (val != 0 || token.charAt(0) != '-');
+            double d = exact ? val : Double.parseDouble(token.toString());
+            if (n == vals.length) vals = Arrays.copyOf(vals, 2 * n);
+            vals[n++] = d;
+        }
+        return Arrays.copyOf(vals, n);
+    }
+
+    // returned by parseLong for a token that it does not parse
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
+    // parses a token of an optional sign and 1 to 18 ASCII digits; returns
+    // NOT_PARSED for any other token, which is then parsed by the library
+    private static long parseLong(CharSequence token) {
+        int len = token.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (token.charAt(0) == '-' || token.charAt(0) == '+')) {
+            negative = token.charAt(0) == '-';
+            i = 1;
+        }
+        if (i == len || len - i > 18) return NOT_PARSED;
+        long val = 0;
+        for (; i < len; i++) {
+            int digit = token.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return NOT_PARSED;
+            val = 10 * val + digit;
+        }
+        return negative ? -val : val;
+    }
+
+    // scans the remainder of this input stream once, in blocks that are read
+    // with readChars(), without the scanner and without regular expressions
+    private final class Tokenizer {
+        private final char[] buf = new char[8192];
+        private int position;
+        private int limit;
+
+        // returns the next character, or -1 at the end of the input stream
+        int read() {
+            if (position == limit && !fill()) return -1;
+            return buf[position++];
+        }
+
+        // returns the next character without reading it, or -1
+        int peek() {
+            if (position == limit && !fill()) return -1;
+            return buf[position];
+        }
+
+        // reads the next token into the given builder; returns false if
+        // there are no more tokens
+        boolean nextToken(StringBuilder token) {
+            token.setLength(0);
+            int c;
+            do {
+                c = read();
+                if (c == -1) return false;
+            } while (Character.isWhitespace((char) c));
+            do {
+                token.append((char) c);
+                c = read();
+            } while (c != -1 && !Character.isWhitespace((char) c));
+            return true;
+        }
+
+        private boolean fill() {
+            int n = readChars(buf, 0, buf.length);
+            if (n <= 0) return false;
+            position = 0;
+            limit = n;
+            return true;
+        }
     }
 
     ///// end: section (2 of 2) of code duplicated from In to StdIn */
@@ -1,3 +1,10 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Random;
 
@@ -13,6 +20,21 @@ public class LanguageModel {
     // The random number generator used by this model. 
 	private Random randomGenerator;
 
+    // The most generated characters that generate reserves room for in advance
+    static final int MAX_PRESIZE = 1 << 20;
+
+    // The samplers used by generate, or null if generate uses the lists directly
+    private volatile SamplerCache samplers;
+
+    // Normalizes the corpus and the initial texts, or null
+    private Normalizer normalizer;
+
+    // True once the model was frozen; a frozen model can not be trained
+    private volatile boolean frozen;
+
+    // The scorer used by score, built when it is first needed, or null
+    private volatile Scorer scorer;
+
     /** Constructs a language model with the given window length and a given
      *  seed value. Generating texts from this model multiple times with the 
      *  same seed value will produce the same random texts. Good for debugging. */
@@ -33,38 +55,182 @@ public class LanguageModel {
 
     /** Builds a language model from the text in the given file (the corpus). */
 	public void train(String fileName) {
-        String window = "";
-        char c;
+        checkNotFrozen();
         In in = new In(fileName);
-
-        // build first window
-        for (int i = 1; i <= windowLength; i++) { 
-            if (!in.hasNextChar()) return;
-            window += in.readChar();
+        try {
+            // reads the file in blocks, through In.readChars
+            train(in.reader());
+        } finally {
+            in.close();
         }
+    }
 
-        while (!in.isEmpty()) {
-            c = in.readChar();
-            List probs = CharDataMap.get(window);
-            if (probs == null) {
-                probs = new List ();
-                CharDataMap.put(window, probs);
+    /** Builds a language model from the text that is read from the given reader, like train.
+     *  The reader is not closed. */
+    public void train(Reader in) {
+        checkNotFrozen();
+        // counts the windows, reading the text in blocks (see CorpusCounter)
+        CorpusCounter counter = new CorpusCounter(CharDataMap, windowLength);
+        counter.setNormalizer(normalizer);
+        char[] buf = new char[1 << 14];
+        int n;
+        try {
+            while ((n = in.read(buf, 0, buf.length)) != -1) {
+                counter.accept(buf, 0, n);
             }
-            probs.update(c);
-
-            // move window fowards by 1 character
-            window += c;
-            window = window.substring(1, window.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        // The entire file has been processed, and all the characters have been counted.
+        counter.finish();
+        // The entire text has been processed, and all the characters have been counted.
         // Proceeds to compute and set the p and cp fields of all the CharData objects
         // in each linked list in the map.
+        computeProbabilities();
+    }
+
+    /** Builds a language model from the text in the given file, like train, using two threads.
+     *  A file whose name ends with .gz is decompressed by the reader thread.
+     *  A reader thread reads and decodes the file into blocks of characters, and hands them
+     *  over to the calling thread, which counts them, through a ring of preallocated blocks.
+     *  If reading fails, the failure of the reader thread is thrown, and the model is not
+     *  changed. */
+    public void trainPipelined(String fileName) {
+        checkNotFrozen();
+        trainPipelined(CorpusCounter.open(fileName));
+    }
+
+    // Same as trainPipelined(fileName), reading the text from the given reader,
+    // which is closed by the reader thread.
+    void trainPipelined(final Reader reader) {
+        checkNotFrozen();
+        final CharBlockRing ring = new CharBlockRing(8, 1 << 16);
+        Thread producer = new Thread(() -> {
+            Throwable failure = null;
+            try (Reader in = reader) {
+                while (true) {
+                    char[] block = ring.nextFree();
+                    int n = in.read(block, 0, block.length);
+                    if (n == -1) break;
+                    ring.publish(n);
+                }
+            } catch (InterruptedException e) {
+                // the consumer stopped
+            } catch (IOException e) {
+                failure = new UncheckedIOException(e);
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                ring.end(failure);
+            }
+        }, "corpus-reader");
+        producer.setDaemon(true);
+        producer.start();
+
+        // counts into a new map, which is added to the model only if all the text was read
+        HashMap<String, List> counts = new HashMap<String, List>();
+        CorpusCounter counter = new CorpusCounter(counts, windowLength);
+        counter.setNormalizer(normalizer);
+        try {
+            int index;
+            while ((index = ring.nextFull()) != -1) {
+                counter.accept(ring.block(index), 0, ring.length(index));
+                ring.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("training was interrupted", e);
+        } finally {
+            producer.interrupt();
+        }
+        counter.finish();
+        addCounts(CharDataMap, counts);
+        computeProbabilities();
+    }
+
+    /** Builds a language model from the text in all the given files. The files are counted
+     *  in parallel, and no window crosses from one file to the next. */
+    public void train(String[] fileNames) {
+        checkNotFrozen();
+        if (normalizer != null) {
+            throw new IllegalStateException("parallel training does not support normalization");
+        }
+        addCounts(CharDataMap, ParallelTrainer.count(fileNames, windowLength));
+        computeProbabilities();
+    }
+
+    /** Builds a language model from the text in all the files of the given directory
+     *  whose names match the given glob pattern (for example "*.txt"). */
+    public void train(String dir, String glob) {
+        train(ParallelTrainer.list(dir, glob));
+    }
+
+    /** Adds the counts of the given models to this model, and computes the probabilities
+     *  of the merged model. The given models are not changed.
+     *  @throws IllegalArgumentException if a model has a different window length */
+    public void merge(LanguageModel... models) {
+        checkNotFrozen();
+        for (LanguageModel model : models) {
+            if (model.windowLength != windowLength) {
+                throw new IllegalArgumentException("window length " + model.windowLength
+                    + " does not match " + windowLength);
+            }
+        }
+        for (LanguageModel model : models) {
+            HashMap<String, List> copy = new HashMap<String, List>();
+            for (String key : model.CharDataMap.keySet()) {
+                if (!CharDataMap.containsKey(key)) copy.put(key, copyOf(model.CharDataMap.get(key)));
+                else copy.put(key, model.CharDataMap.get(key));
+            }
+            addCounts(CharDataMap, copy);
+        }
+        computeProbabilities();
+    }
+
+    // Returns a new list with the same characters and counters as the given list.
+    private static List copyOf(List probs) {
+        List copy = new List();
+        CharData[] chars = probs.toArray();
+        for (int i = chars.length - 1; i >= 0; i--) {
+            copy.addFirst(chars[i].chr);
+            copy.getFirst().count = chars[i].count;
+        }
+        return copy;
+    }
+
+    // Adds the counters of all the windows in the from map to the into map.
+    // Characters that are new to a list of the into map are added to its beginning in
+    // the order in which they were first counted, so that adding the counts of two
+    // consecutive parts of a corpus gives the same lists as counting the whole corpus.
+    // (Lists of the from map may be moved to the into map, so it must not be used afterwards.)
+    static void addCounts(HashMap<String, List> into, HashMap<String, List> from) {
+        for (String key : from.keySet()) {
+            List probs = into.get(key);
+            if (probs == null) {
+                into.put(key, from.get(key));
+                continue;
+            }
+            CharData[] added = from.get(key).toArray();
+            for (int i = added.length - 1; i >= 0; i--) {
+                int index = probs.indexOf(added[i].chr);
+                if (index == -1) {
+                    probs.addFirst(added[i].chr);
+                    probs.getFirst().count = added[i].count;
+                } else {
+                    probs.get(index).count += added[i].count;
+                }
+            }
+        }
+    }
 
+    // Computes and sets the p and cp fields of all the CharData objects
+    // in each linked list in the map.
+    void computeProbabilities() {
+        if (samplers != null) samplers.clear();
+        scorer = null;
         for (String key : CharDataMap.keySet()) {
             List probs = CharDataMap.get(key);
             calculateProbabilities(probs);
         }
-            
     }
 
     // Computes and sets the probabilities (p and cp fields) of all the
@@ -87,6 +253,11 @@ public class LanguageModel {
         }
     }
 
+    // Computes and sets the probabilities of all the characters in the given array based list.
+    public void calculateProbabilities(ArrayCharList probs) {
+        probs.calculateProbabilities();
+    }
+
     // Returns a random character from the given probabilities list.
 	public char getRandomChar(List probs) {
     //    double rand = Math.random();
@@ -99,6 +270,11 @@ public class LanguageModel {
         return ' '; // will never reach this return
 	}
 
+    // Returns a random character from the given array based probabilities list.
+    public char getRandomChar(ArrayCharList probs) {
+        return probs.charAt(randomGenerator.nextDouble());
+    }
+
 
     /**
 	 * Generates a random text, based on the probabilities that were learned during training. 
@@ -108,18 +284,149 @@ public class LanguageModel {
 	 * @return the generated text
 	 */
 	public String generate(String initialText, int textLength) {
+        if (normalizer != null) initialText = normalizer.normalize(initialText);
         if (initialText.length() < windowLength) return initialText;
-        String result = "" + initialText;
+        StringBuilder result = new StringBuilder(initialText.length()
+            + Math.max(0, Math.min(textLength, MAX_PRESIZE)));
+        result.append(initialText);
+        SamplerCache samplers = this.samplers;
         for (int i=1; i <= textLength; i++) {
             String window = result.substring(result.length() - windowLength, result.length());
             List options = CharDataMap.get(window);
-            if (options == null) return result; // break
-            result += getRandomChar(options);
+            if (options == null) break;
+            if (samplers == null) result.append(getRandomChar(options));
+            else result.append(samplers.get(window, options).sample(randomGenerator.nextDouble()));
         }
-        return result;
+        return result.toString();
 
 	}
 
+    /** Freezes this model: from now on, training, merging, loading, or changing the
+     *  normalizer or the sampler cache of this model throws an IllegalStateException, so the
+     *  model can be shared with readers that must not see it change. */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /** Returns true if this model was frozen. */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException("the model is frozen");
+    }
+
+    /** Makes train (from a file or a reader), trainPipelined, generate and score normalize
+     *  the corpus, the initial text and the scored text with the given normalizer, or stop
+     *  normalizing if it is null. Train with the same normalizer that generates.
+     *  GenerationPublisher, QuantizedModel and TieredModel normalize their initial texts
+     *  with the normalizer of the model too; parallel training (train(String[])) does not
+     *  support normalization, and Classifier does not normalize the texts it classifies. */
+    public void normalizeWith(Normalizer normalizer) {
+        checkNotFrozen();
+        this.normalizer = normalizer;
+    }
+
+    /** Returns the normalizer of this model, or null. */
+    public Normalizer getNormalizer() {
+        return normalizer;
+    }
+
+    /** Makes generate sample through a cache of at most maxSamplers samplers, which are
+     *  built from the lists of the windows when they are first used (see SamplerCache).
+     *  The generated texts do not change. Returns the cache, for its statistics. */
+    public SamplerCache useSamplerCache(int maxSamplers) {
+        checkNotFrozen();
+        SamplerCache cache = new SamplerCache(maxSamplers);
+        samplers = cache;
+        return cache;
+    }
+
+    /** Scores the text in the given file against this (trained) model: returns the log
+     *  probability of the text, its cross entropy, and the number of characters that
+     *  could not be scored. Large files are scored in parallel. */
+    public Score score(String fileName) {
+        return scorer().score(fileName);
+    }
+
+    /** Scores the text that is read from the given reader against this (trained) model. */
+    public Score score(Reader in) {
+        return scorer().score(in);
+    }
+
+    // Returns the scorer of this model, building it if the model was trained since the
+    // last call. Two threads may both build it; either one is correct.
+    private Scorer scorer() {
+        Scorer s = scorer;
+        if (s == null) {
+            s = new Scorer(this);
+            scorer = s;
+        }
+        return s;
+    }
+
+    /** Writes the map of this language model to the given stream: the window length,
+     *  the number of windows, and for each window its successors (in list order)
+     *  with their counters. The probabilities are not written, they are recomputed by load.
+     *  The windows are written in sorted order, so saved models can be merged by
+     *  streaming them (see ModelMerger). */
+    public void save(DataOutputStream out) throws IOException {
+        out.writeInt(windowLength);
+        out.writeInt(CharDataMap.size());
+        String[] keys = CharDataMap.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        for (String key : keys) {
+            List probs = CharDataMap.get(key);
+            out.writeUTF(key);
+            out.writeInt(probs.getSize());
+            ListIterator itr = probs.listIterator(0);
+            while (itr.hasNext()) {
+                CharData cd = itr.next();
+                out.writeChar(cd.chr);
+                out.writeInt(cd.count);
+            }
+        }
+    }
+
+    /** Reads a map that was written by save into this (empty) language model,
+     *  and computes its probabilities.
+     *  @throws IllegalArgumentException if the map was saved with a different window length */
+    public void load(DataInputStream in) throws IOException {
+        checkNotFrozen();
+        if (samplers != null) samplers.clear();
+        scorer = null;
+        int length = in.readInt();
+        if (length != windowLength) {
+            throw new IllegalArgumentException("window length " + length + " does not match " + windowLength);
+        }
+        int numOfWindows = in.readInt();
+        for (int i = 0; i < numOfWindows; i++) {
+            String key = in.readUTF();
+            int size = in.readInt();
+            char[] chars = new char[size];
+            int[] counts = new int[size];
+            for (int j = 0; j < size; j++) {
+                chars[j] = in.readChar();
+                counts[j] = in.readInt();
+            }
+            // rebuilds the list from its end, so that it has the saved order
+            List probs = new List();
+            for (int j = size - 1; j >= 0; j--) {
+                probs.addFirst(chars[j]);
+                probs.getFirst().count = counts[j];
+            }
+            calculateProbabilities(probs);
+            CharDataMap.put(key, probs);
+        }
+    }
+
+    /** Writes the map of this language model to the given writer, one window per line,
+     *  in the given format ("tsv" or "jsonl"; see ModelExporter), optionally sorted. */
+    public void export(Writer out, String format, boolean sorted) throws IOException {
+        ModelExporter.export(this, out, format, sorted);
+    }
+
     /** Returns a string representing the map of this language model. */
     public String toString() {
 		StringBuilder str = new StringBuilder();
@@ -1,6 +1,29 @@
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 public class LanguageModelTester {
         public static void main(String[] args) {
@@ -19,11 +42,103 @@ public class LanguageModelTester {
             case "generate":
                 result = testGenerate();
                 break;
+            case "offHeap":
+                result = testOffHeap();
+                break;
+            case "trainPipelined":
+                result = testTrainPipelined();
+                break;
+            case "score":
+                result = testScore();
+                break;
+            case "merge":
+                result = testMerge();
+                break;
+            case "samplerCache":
+                result = testSamplerCache();
+                break;
+            case "syntheticCorpus":
+                result = testSyntheticCorpus();
+                break;
+            case "tokenModel":
+                result = testTokenModel();
+                break;
+            case "normalize":
+                result = testNormalize();
+                break;
+            case "modelHolder":
+                result = testModelHolder();
+                break;
+            case "modelCache":
+                result = testModelCache();
+                break;
+            case "parallelTrainer":
+                result = testParallelTrainer();
+                break;
+            case "gzip":
+                result = testGzip();
+                break;
+            case "classifier":
+                result = testClassifier();
+                break;
+            case "modelMerger":
+                result = testModelMerger();
+                break;
+            case "orderSweep":
+                result = testOrderSweep();
+                break;
+            case "quantizedModel":
+                result = testQuantizedModel();
+                break;
+            case "contextDictionary":
+                result = testContextDictionary();
+                break;
+            case "tieredModel":
+                result = testTieredModel();
+                break;
+            case "concurrentModelBuilder":
+                result = testConcurrentModelBuilder();
+                break;
+            case "modelExporter":
+                result = testModelExporter();
+                break;
+            case "in":
+                result = testIn();
+                break;
+            case "inTokenizer":
+                result = testInTokenizer();
+                break;
+            case "generationPublisher":
+                result = testGenerationPublisher();
+                break;
             case "all":
                 result = testCalculateProbabilities();
                 result = result && testGetRandomChar();
                 result = result && testTrain();
                 result = result && testGenerate();
+                result = result && testOffHeap();
+                result = result && testTrainPipelined();
+                result = result && testScore();
+                result = result && testMerge();
+                result = result && testSamplerCache();
+                result = result && testSyntheticCorpus();
+                result = result && testTokenModel();
+                result = result && testNormalize();
+                result = result && testModelHolder();
+                result = result && testModelCache();
+                result = result && testParallelTrainer();
+                result = result && testGzip();
+                result = result && testClassifier();
+                result = result && testModelMerger();
+                result = result && testOrderSweep();
+                result = result && testQuantizedModel();
+                result = result && testContextDictionary();
+                result = result && testTieredModel();
+                result = result && testConcurrentModelBuilder();
+                result = result && testModelExporter();
+                result = result && testIn();
+                result = result && testInTokenizer();
+                result = result && testGenerationPublisher();
                 break;
             default:
                 break;
@@ -158,6 +273,9 @@ public class LanguageModelTester {
         "  Batrachians (frogs, toads, newts) have to modified ";
 
         boolean res = stringEqualsNoSpaces(generatedText, expectedGeneratedText);
+        // lengths that do not fit a presized builder
+        res = res && languageModel.generate("Natural", -1).equals("Natural")
+            && languageModel.generate("Qxqxqxq", Integer.MAX_VALUE).equals("Qxqxqxq");
         if (!res){
             System.out.println("Expected: " + expectedGeneratedText);
             System.out.println("Actual: " + generatedText);
@@ -166,6 +284,1076 @@ public class LanguageModelTester {
         return res;
     }
 
+    // Test method for the OffHeapLanguageModel class
+    public static boolean testOffHeap() {
+        LanguageModel languageModel = new LanguageModel(7,20);
+        languageModel.train("originofspecies.txt");
+        OffHeapLanguageModel offHeapModel = new OffHeapLanguageModel(7,20);
+        offHeapModel.train("originofspecies.txt");
+        String expected = languageModel.generate("Natural", 500);
+        String actual = offHeapModel.generate("Natural", 500);
+        boolean res = expected.equals(actual) && offHeapModel.getSize() == languageModel.CharDataMap.size()
+            && offHeapModel.generate("Natural", -1).equals("Natural")
+            && offHeapModel.generate("Qxqxqxq", Integer.MAX_VALUE).equals("Qxqxqxq");
+        offHeapModel.close();
+        offHeapModel.close();
+        res = res && offHeapModel.offHeapBytes() == 0;
+        if (!res){
+            System.out.println("Expected: " + expected);
+            System.out.println("Actual: " + actual);
+        }
+        return res;
+    }
+
+    // Test method for the trainPipelined() method
+    public static boolean testTrainPipelined() {
+        boolean res = true;
+        String [] corpora = {"shakespeareinlove.txt", "galileocorpus.txt"};
+        for (int i = 0; i < corpora.length; i++) {
+            LanguageModel expected = new LanguageModel(4,20);
+            expected.train(corpora[i]);
+            LanguageModel actual = new LanguageModel(4,20);
+            actual.trainPipelined(corpora[i]);
+            boolean temp = expected.toString().equals(actual.toString());
+            if (!temp){
+                System.out.println("TrainPipelined Test failed for " + corpora[i]);
+            }
+            res = res && temp;
+        }
+        // a reader that fails after some text: the failure must reach the caller,
+        // and the model must not keep the counts of the text before it
+        LanguageModel failed = new LanguageModel(4,20);
+        failed.train("shakespeareinlove.txt");
+        String before = failed.toString();
+        Reader failing = new StringReader("word ".repeat(100000)) {
+            private int calls;
+
+            public int read(char[] buf, int off, int len) throws IOException {
+                if (++calls == 3) throw new IllegalArgumentException("bad input");
+                return super.read(buf, off, len);
+            }
+        };
+        boolean thrown = false;
+        try {
+            failed.trainPipelined(failing);
+        } catch (IllegalArgumentException e) {
+            thrown = e.getMessage().equals("bad input");
+        }
+        if (!thrown || !failed.toString().equals(before)){
+            System.out.println("TrainPipelined Test failed for a failing reader (thrown: " + thrown + ")");
+            res = false;
+        }
+        return res;
+    }
+
+    // Test method for the score() method
+    public static boolean testScore() {
+        LanguageModel languageModel = new LanguageModel(3,20);
+        languageModel.train("originofspecies.txt");
+        Score whole = languageModel.score("shakespeareinlove.txt");
+        Score split = new Scorer(languageModel).score("shakespeareinlove.txt", 10000);
+        Score corpus = languageModel.score("originofspecies.txt");
+        // training again must not keep scoring with the old scorer
+        languageModel.train("shakespeareinlove.txt");
+        Score retrained = languageModel.score("shakespeareinlove.txt");
+        boolean res = whole.toString().equals(split.toString())
+            && corpus.getUnseenContexts() == 0 && corpus.getUnseenChars() == 0
+            && whole.getUnseenContexts() > 0
+            && retrained.getUnseenContexts() < whole.getUnseenContexts();
+        if (!res){
+            System.out.println("Whole: " + whole);
+            System.out.println("Split: " + split);
+            System.out.println("Corpus: " + corpus);
+            System.out.println("Retrained: " + retrained);
+        }
+        return res;
+    }
+
+    // Test method for the merge() method
+    public static boolean testMerge() {
+        String [] corpora = {"originofspecies.txt", "shakespeareinlove.txt"};
+        LanguageModel expected = new LanguageModel(3,20);
+        expected.train(corpora);
+        LanguageModel first = new LanguageModel(3,20);
+        first.train(corpora[0]);
+        LanguageModel second = new LanguageModel(3,20);
+        second.train(corpora[1]);
+        LanguageModel merged = new LanguageModel(3,20);
+        merged.merge(first, second);
+        boolean res = expected.CharDataMap.size() == merged.CharDataMap.size();
+        for (String key : expected.CharDataMap.keySet()) {
+            res = res && expected.CharDataMap.get(key).toString().equals("" + merged.CharDataMap.get(key));
+        }
+        res = res && expected.generate("Natural", 300).equals(merged.generate("Natural", 300));
+        if (!res){
+            System.out.println("Merge Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the useSamplerCache() method
+    public static boolean testSamplerCache() {
+        LanguageModel expected = new LanguageModel(7,20);
+        expected.train("shakespeareinlove.txt");
+        LanguageModel cached = new LanguageModel(7,20);
+        cached.train("shakespeareinlove.txt");
+        SamplerCache samplers = cached.useSamplerCache(64);
+        boolean res = expected.generate("Theatre", 3000).equals(cached.generate("Theatre", 3000))
+            && samplers.getEvictions() > 0 && samplers.getHits() > 0;
+        // loading replaces lists, so it must not leave their old samplers in the cache
+        LanguageModel other = new LanguageModel(7,20);
+        other.train("originofspecies.txt");
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(saved)) {
+            other.save(out);
+        } catch (IOException e) {
+            res = false;
+        }
+        LanguageModel plain = new LanguageModel(7,20);
+        plain.train("shakespeareinlove.txt");
+        LanguageModel reloaded = new LanguageModel(7,20);
+        reloaded.train("shakespeareinlove.txt");
+        reloaded.useSamplerCache(1 << 20);
+        for (LanguageModel model : new LanguageModel[] {plain, reloaded}) {
+            model.generate("Theatre", 30000);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(saved.toByteArray()))) {
+                model.load(in);
+            } catch (IOException e) {
+                res = false;
+            }
+        }
+        res = res && plain.generate("Theatre", 30000).equals(reloaded.generate("Theatre", 30000));
+        if (!res){
+            System.out.println("SamplerCache Test failed, hit rate " + samplers.hitRate());
+        }
+        return res;
+    }
+
+    // Test method for the SyntheticCorpus class
+    public static boolean testSyntheticCorpus() {
+        char[] first = new char[100000];
+        char[] second = new char[100000];
+        int n = new SyntheticCorpus(100000, 40, 3, 20).read(first, 0, first.length);
+        new SyntheticCorpus(100000, 40, 3, 20).read(second, 0, second.length);
+        String alphabet = new String(SyntheticCorpus.alphabet(40));
+        boolean res = n == 100000 && Arrays.equals(first, second);
+        for (int i = 0; i < n && res; i++) {
+            res = alphabet.indexOf(first[i]) != -1;
+        }
+        LanguageModel expected = new LanguageModel(3, 20);
+        expected.train(new CharArrayReader(first));
+        LanguageModel streamed = new LanguageModel(3, 20);
+        streamed.train(new SyntheticCorpus(100000, 40, 3, 20));
+        res = res && expected.toString().equals(streamed.toString())
+            && expected.CharDataMap.size() <= 40 * 40 * 40;
+        if (!res){
+            System.out.println("SyntheticCorpus Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the TokenModel class
+    public static boolean testTokenModel() {
+        TokenModel model = new TokenModel(2, 20);
+        model.train("shakespeareinlove.txt");
+        // counts the windows and successors with strings (readAllStrings splits at the
+        // same whitespace characters as TokenModel)
+        String[] words = new In("shakespeareinlove.txt").readAllStrings();
+        HashMap<String, Integer> windows = new HashMap<String, Integer>();
+        HashMap<String, Integer> pairs = new HashMap<String, Integer>();
+        for (int i = 2; i < words.length; i++) {
+            String window = words[i - 2] + " " + words[i - 1];
+            windows.merge(window, 1, Integer::sum);
+            pairs.merge(window + " " + words[i], 1, Integer::sum);
+        }
+        boolean res = model.getSize() == windows.size();
+        for (String pair : pairs.keySet()) {
+            if (!res) break;
+            int space = pair.lastIndexOf(' ');
+            String window = pair.substring(0, space);
+            double expected = (double) pairs.get(pair) / windows.get(window);
+            res = Math.abs(model.probability(window, pair.substring(space + 1)) - expected) < 1e-12;
+        }
+        TokenModel again = new TokenModel(2, 20);
+        again.train("shakespeareinlove.txt");
+        String text = model.generate("WILL is", 200);
+        res = res && text.equals(again.generate("WILL is", 200))
+            && text.split(" ").length > 100 && model.generate("Shakespeare", 10).equals("Shakespeare");
+        // generate and probability split windows like train does, also at whitespace
+        // that is not ASCII
+        TokenModel small = new TokenModel(2, 20);
+        small.train(new StringReader("one\u3000two three\u2028one two three one two four "));
+        String generated = small.generate(" one\u3000two", 1);
+        res = res && Math.abs(small.probability("one\u3000two", "three") - 2.0 / 3) < 1e-12
+            && Math.abs(small.probability("\u2028one two\t", "four") - 1.0 / 3) < 1e-12
+            && (generated.equals(" one\u3000two three") || generated.equals(" one\u3000two four"))
+            && small.generate(" \u3000 ", 5).equals(" \u3000 ") && small.probability("one", "two") == 0;
+        if (!res){
+            System.out.println("TokenModel Test failed");
+        }
+        return res;
+    }
+
+    // Test method for normalization, on all the paths that normalize
+    public static boolean testNormalize() {
+        String alphabet = "abcdefghijklmnopqrstuvwxyz .,;:!?'-";
+        Normalizer normalizer = new Normalizer(true, true, true, alphabet, '#');
+        LanguageModel raw = new LanguageModel(7, 20);
+        raw.train("shakespeareinlove.txt");
+        LanguageModel normalized = new LanguageModel(7, 20);
+        normalized.normalizeWith(normalizer);
+        normalized.train("shakespeareinlove.txt");
+        // the same as normalizing the whole corpus first
+        String text = normalizer.normalize(new In("shakespeareinlove.txt").readAll());
+        LanguageModel expected = new LanguageModel(7, 20);
+        expected.train(new StringReader(text));
+        boolean res = normalized.toString().equals(expected.toString())
+            && normalized.CharDataMap.size() < raw.CharDataMap.size()
+            && normalized.generate("WILL \r\n  Is", 300).equals(expected.generate("will is", 300))
+            && !ModelCache.key("shakespeareinlove.txt", 7, "").equals(
+                ModelCache.key("shakespeareinlove.txt", 7, normalized.getNormalizer().toString()));
+        // scoring normalizes the scored text
+        res = res && normalized.score("shakespeareinlove.txt").toString().equals(expected.score(new StringReader(text)).toString())
+            && normalized.score(new StringReader("WILL \r\n  Is")).toString().equals(expected.score(new StringReader("will is")).toString());
+        // the copies of the model normalize their initial texts
+        res = res && new QuantizedModel(normalized, 20).generate("WILL \r\n  Is", 300).equals(new QuantizedModel(expected, 20).generate("will is", 300))
+            && new TieredModel(normalized, 100, 20).generate("WILL \r\n  Is", 300).equals(new TieredModel(expected, 100, 20).generate("will is", 300));
+        // the other trainers normalize too, and threads share one normalizer
+        LanguageModel[] orders = OrderSweep.trainOrders("shakespeareinlove.txt", 7, 20, normalizer);
+        res = res && sameLists(expected, orders[6]) && orders[6].getNormalizer() == normalizer;
+        ConcurrentModelBuilder builder = new ConcurrentModelBuilder(7, normalizer);
+        LanguageModel shared = new LanguageModel(7, 20);
+        shared.normalizeWith(normalizer);
+        Thread thread = new Thread(() -> builder.train("shakespeareinlove.txt"));
+        thread.start();
+        shared.train("shakespeareinlove.txt");
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            res = false;
+        }
+        LanguageModel built = builder.build(20);
+        res = res && sameLists(expected, built) && sameLists(expected, shared) && built.getNormalizer() == normalizer;
+        if (!res){
+            System.out.println("Normalize Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the ModelHolder class
+    public static boolean testModelHolder() {
+        LanguageModel expected = new LanguageModel(7, 20);
+        expected.train("shakespeareinlove.txt");
+        int fullSize = expected.CharDataMap.size();
+        ModelHolder holder = new ModelHolder(7, 20);
+        LanguageModel empty = holder.current();
+        // a reader that checks that it only sees the empty model or the complete one
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicBoolean partial = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                int size = holder.current().CharDataMap.size();
+                if (size != 0 && size != fullSize) partial.set(true);
+            }
+        });
+        reader.start();
+        LanguageModel trained = holder.retrain("shakespeareinlove.txt").join();
+        stop.set(true);
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean res = !partial.get() && holder.current() == trained && trained.isFrozen()
+            && empty.CharDataMap.size() == 0 && trained.CharDataMap.size() == fullSize
+            && holder.generate("Theatre", 500).equals(expected.generate("Theatre", 500));
+        try {
+            holder.current().train("shakespeareinlove.txt");
+            res = false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // a frozen model can not change its sampling either
+        try {
+            holder.current().useSamplerCache(16);
+            res = false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        holder.shutdown();
+        if (!res){
+            System.out.println("ModelHolder Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the ModelCache class
+    public static boolean testModelCache() {
+        boolean res = true;
+        File dir = null;
+        ModelCache cache = null;
+        try {
+            dir = Files.createTempDirectory("modelcache").toFile();
+            cache = new ModelCache(dir.getPath(), 1L << 30);
+            LanguageModel trained = new LanguageModel(7, 20);
+            cache.train(trained, "shakespeareinlove.txt");
+            LanguageModel loaded = new LanguageModel(7, 20);
+            cache.train(loaded, "shakespeareinlove.txt");
+            res = cache.getMisses() == 1 && cache.getHits() == 1
+                && sameLists(loaded, trained)
+                && loaded.generate("Theatre", 300).equals(trained.generate("Theatre", 300));
+            // other options, or another normalizer, make another key
+            cache.train(new LanguageModel(7, 20), "shakespeareinlove.txt", "other");
+            LanguageModel normalized = new LanguageModel(7, 20);
+            normalized.normalizeWith(new Normalizer(true, true, true));
+            cache.train(normalized, "shakespeareinlove.txt");
+            res = res && cache.getMisses() == 3 && cache.getHits() == 1
+                && normalized.CharDataMap.size() < trained.CharDataMap.size();
+            // a model that was already trained is rejected, and is not changed
+            String before = trained.toString();
+            try {
+                cache.train(trained, "shakespeareinlove.txt");
+                res = false;
+            } catch (IllegalArgumentException e) {
+                res = res && trained.toString().equals(before) && cache.getHits() == 1;
+            }
+            // a cache that is too small keeps nothing (the new model is a miss, and evicts all)
+            ModelCache small = new ModelCache(dir.getPath(), 1);
+            small.train(new LanguageModel(6, 20), "shakespeareinlove.txt");
+            small.train(new LanguageModel(7, 20), "shakespeareinlove.txt");
+            res = res && small.getMisses() == 2 && small.getHits() == 0;
+        } catch (IOException e) {
+            res = false;
+        } finally {
+            if (dir != null) {
+                for (File file : dir.listFiles()) file.delete();
+                dir.delete();
+            }
+        }
+        if (!res){
+            System.out.println("ModelCache Test failed"
+                + ((cache == null) ? "" : ": " + cache.getHits() + " hits, " + cache.getMisses() + " misses"));
+        }
+        return res;
+    }
+
+    // Test method for splitting files into pieces in ParallelTrainer
+    public static boolean testParallelTrainer() {
+        // a corpus with long whitespace runs, line breaks and multi byte characters,
+        // so that pieces start inside windows and after whitespace runs
+        StringBuilder text = new StringBuilder();
+        String[] words = {"\u00FCber", "the", "na\u00EFve", "caf\u00E9", "a", "rose\u00A0is", "\uD83C\uDF39"};
+        String[] spaces = {" ", "  ", "\n", "\r\n", "\t \t", "        ", "\n\n\n"};
+        for (int i = 0; i < 600; i++) {
+            text.append(words[(i * 7) % words.length]).append(spaces[(i * 3) % spaces.length]);
+        }
+        text.append("   \n");
+        File file = new File("parallel-test.txt");
+        boolean res = true;
+        try {
+            Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+            LanguageModel expected = new LanguageModel(4, 20);
+            expected.train(file.getName());
+            for (int pieceSize : new int[] {1, 2, 3, 5, 8, 13, 21, 100, 1000, 1 << 20}) {
+                LanguageModel split = new LanguageModel(4, 20);
+                LanguageModel.addCounts(split.CharDataMap,
+                    ParallelTrainer.count(new String[] {file.getName()}, 4, pieceSize));
+                split.computeProbabilities();
+                if (!sameLists(expected, split)) {
+                    System.out.println("Piece size " + pieceSize + " counts differently");
+                    res = false;
+                }
+            }
+            // a corpus without ASCII characters must be split too, never at a
+            // continuation byte or before a (non ASCII) whitespace
+            StringBuilder cjk = new StringBuilder();
+            String[] cjkWords = {"\u6625\u306F", "\u3042\u3051\u307C\u306E", "\u6C34", "\uD840\uDC0B\u5C71"};
+            String[] cjkSpaces = {"\u3000", "\u3001", "\u3000\u3000", "\u3002"};
+            for (int i = 0; i < 600; i++) {
+                cjk.append(cjkWords[(i * 5) % cjkWords.length]).append(cjkSpaces[(i * 3) % cjkSpaces.length]);
+            }
+            Files.write(file.toPath(), cjk.toString().getBytes(StandardCharsets.UTF_8));
+            expected = new LanguageModel(4, 20);
+            expected.train(file.getName());
+            Score whole = expected.score(file.getName());
+            for (int pieceSize : new int[] {1, 2, 7, 100, 1000}) {
+                ArrayList<ParallelTrainer.Piece> pieces = new ArrayList<ParallelTrainer.Piece>();
+                ParallelTrainer.split(file.getName(), 4, pieceSize, pieces);
+                LanguageModel split = new LanguageModel(4, 20);
+                LanguageModel.addCounts(split.CharDataMap,
+                    ParallelTrainer.count(new String[] {file.getName()}, 4, pieceSize));
+                split.computeProbabilities();
+                Score splitScore = new Scorer(expected).score(file.getName(), pieceSize);
+                if (pieces.size() < 2 || !sameLists(expected, split)
+                    || !whole.toString().equals(splitScore.toString())) {
+                    System.out.println("Piece size " + pieceSize + " splits the CJK corpus into "
+                        + pieces.size() + " pieces, or counts it differently");
+                    res = false;
+                }
+            }
+        } catch (IOException e) {
+            res = false;
+        } finally {
+            file.delete();
+        }
+        if (!res){
+            System.out.println("ParallelTrainer Test failed");
+        }
+        return res;
+    }
+
+    // Test method for training from gzip compressed corpora
+    public static boolean testGzip() {
+        File gz = new File("shakespeareinlove-test.txt.gz");
+        boolean res = true;
+        try {
+            try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+                Files.copy(new File("shakespeareinlove.txt").toPath(), out);
+            }
+            LanguageModel expected = new LanguageModel(5, 20);
+            expected.train("shakespeareinlove.txt");
+            LanguageModel plain = new LanguageModel(5, 20);
+            plain.train(gz.getName());
+            LanguageModel pipelined = new LanguageModel(5, 20);
+            pipelined.trainPipelined(gz.getName());
+            LanguageModel parallel = new LanguageModel(5, 20);
+            parallel.train(new String[] {gz.getName()});
+            res = sameLists(expected, plain) && sameLists(expected, pipelined) && sameLists(expected, parallel)
+                && new In(gz.getName()).readAll().equals(new In("shakespeareinlove.txt").readAll());
+        } catch (IOException e) {
+            res = false;
+        } finally {
+            gz.delete();
+        }
+        if (!res){
+            System.out.println("Gzip Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the Classifier class
+    public static boolean testClassifier() {
+        String[] corpora = {"originofspecies.txt", "shakespeareinlove.txt"};
+        Classifier classifier = new Classifier();
+        ArrayList<String> documents = new ArrayList<String>();
+        ArrayList<String> expected = new ArrayList<String>();
+        for (String corpus : corpora) {
+            // trains on the first part of the corpus, and classifies documents of the rest
+            String text = new In(corpus).readAll();
+            int trainLength = (int) (text.length() * (1 - Classifier.HOLDOUT));
+            LanguageModel model = new LanguageModel(3, 20);
+            model.train(new StringReader(text.substring(0, trainLength)));
+            classifier.add(corpus, model);
+            for (int i = trainLength; i + 2000 <= text.length(); i += 2000) {
+                documents.add(text.substring(i, i + 2000));
+                expected.add(corpus);
+            }
+        }
+        String[] labels = classifier.classifyAll(documents.toArray(new String[0]));
+        boolean res = labels.length == expected.size() && labels.length > 0;
+        for (int i = 0; i < labels.length; i++) {
+            res = res && labels[i].equals(expected.get(i));
+        }
+        Classifier.Result[] results = classifier.classify(documents.get(0));
+        res = res && results.length == 2 && results[0].label.equals(corpora[0])
+            && results[0].logLikelihood >= results[1].logLikelihood;
+        if (!res){
+            System.out.println("Classifier Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the ModelMerger class
+    public static boolean testModelMerger() {
+        String [] corpora = {"originofspecies.txt", "shakespeareinlove.txt"};
+        LanguageModel expected = new LanguageModel(3,20);
+        expected.train(corpora);
+        boolean res = true;
+        File dir = null;
+        try {
+            dir = Files.createTempDirectory("merger").toFile();
+            String[] inputs = new String[corpora.length];
+            for (int i = 0; i < corpora.length; i++) {
+                LanguageModel model = new LanguageModel(3,20);
+                model.train(corpora[i]);
+                inputs[i] = new File(dir, "model" + i).getPath();
+                try (DataOutputStream out = new DataOutputStream(new FileOutputStream(inputs[i]))) {
+                    model.save(out);
+                }
+            }
+            String output = new File(dir, "merged").getPath();
+            ModelMerger.merge(output, inputs);
+            LanguageModel merged = new LanguageModel(3,20);
+            try (DataInputStream in = new DataInputStream(new FileInputStream(output))) {
+                merged.load(in);
+            }
+            res = sameLists(expected, merged);
+            byte[] saved = Files.readAllBytes(new File(output).toPath());
+            // a model with a different window length
+            String other = new File(dir, "other").getPath();
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(other))) {
+                LanguageModel model = new LanguageModel(4,20);
+                model.train("galileocorpus.txt");
+                model.save(out);
+            }
+            try {
+                ModelMerger.merge(output, inputs[0], other);
+                res = false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            // a model whose windows are not sorted
+            String unsorted = new File(dir, "unsorted").getPath();
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(unsorted))) {
+                out.writeInt(3);
+                out.writeInt(2);
+                for (String key : new String[] {"the", "abc"}) {
+                    out.writeUTF(key);
+                    out.writeInt(1);
+                    out.writeChar('x');
+                    out.writeInt(1);
+                }
+            }
+            try {
+                ModelMerger.merge(output, inputs[0], unsorted);
+                res = false;
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+            // the failed merges left the output as it was, and no temporary files
+            res = res && Arrays.equals(saved, Files.readAllBytes(new File(output).toPath()))
+                && dir.list().length == corpora.length + 3;
+        } catch (IOException e) {
+            res = false;
+        } finally {
+            if (dir != null) {
+                for (File file : dir.listFiles()) file.delete();
+                dir.delete();
+            }
+        }
+        if (!res){
+            System.out.println("ModelMerger Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the OrderSweep class
+    public static boolean testOrderSweep() {
+        LanguageModel[] models = OrderSweep.trainOrders("shakespeareinlove.txt", 4, 20);
+        boolean res = models.length == 4;
+        for (int k = 1; res && k <= 4; k++) {
+            LanguageModel expected = new LanguageModel(k, 20);
+            expected.train("shakespeareinlove.txt");
+            res = models[k - 1].windowLength == k && sameLists(expected, models[k - 1])
+                && expected.generate("Theatre", 200).equals(models[k - 1].generate("Theatre", 200));
+            // longer windows have more contexts, and take more memory
+            if (k > 1) {
+                res = res && models[k - 1].CharDataMap.size() > models[k - 2].CharDataMap.size()
+                    && OrderSweep.footprint(models[k - 1]) > OrderSweep.footprint(models[k - 2]);
+            }
+        }
+        if (!res){
+            System.out.println("OrderSweep Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the QuantizedModel class
+    public static boolean testQuantizedModel() {
+        LanguageModel model = new LanguageModel(3,20);
+        model.train("shakespeareinlove.txt");
+        QuantizedModel quantized = new QuantizedModel(model, 20);
+        boolean res = true;
+        for (String key : model.CharDataMap.keySet()) {
+            // the 16-bit commulative probabilities are within half a unit of the exact ones,
+            // plus one unit for each successor that was raised to its minimal range
+            CharData[] probs = model.CharDataMap.get(key).toArray();
+            double cp = 0;
+            for (CharData cd : probs) {
+                double p = quantized.probability(key, cd.chr);
+                cp += p;
+                res = res && p > 0 && Math.abs(cp - cd.cp) <= (0.5 + probs.length) / 65536;
+            }
+            res = res && Math.abs(cp - 1) < 1e-9 && quantized.probability(key, '\u0001') == 0;
+        }
+        res = res && quantized.probability("qqq", 'a') == 0 && quantized.probability("ab", 'a') == 0;
+        // every generated character is a successor of its window, and the same seed
+        // generates the same text with both generate methods
+        String text = quantized.generate("The", 5000);
+        StringBuilder builder = new StringBuilder(5003);
+        new QuantizedModel(model, 20).generate("The", 5000, builder);
+        res = res && text.length() > 3 && text.startsWith("The") && text.equals(builder.toString());
+        for (int i = 3; res && i < text.length(); i++) {
+            res = model.CharDataMap.get(text.substring(i - 3, i)).indexOf(text.charAt(i)) != -1;
+        }
+        res = res && quantized.generate("Th", 100).equals("Th") && quantized.divergence(model) < 0.01
+            && quantized.generate("The", -1).equals("The") && quantized.generate("Qxq", Integer.MAX_VALUE).equals("Qxq");
+        if (!res){
+            System.out.println("QuantizedModel Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the ContextDictionary class: compares it with a HashMap of the
+    // sorted windows, on random windows over small alphabets (so that the windows share
+    // long prefixes), including lookups of windows that are not in the dictionary
+    public static boolean testContextDictionary() {
+        Random random = new Random(20);
+        boolean res = true;
+        for (int round = 0; res && round < 300; round++) {
+            int windowLength = 1 + random.nextInt(6);
+            int alphabet = 2 + random.nextInt(4);
+            int size = random.nextInt(3 * ContextDictionary.BLOCK_SIZE + 1);
+            HashSet<String> set = new HashSet<String>();
+            for (int i = 0; i < size; i++) set.add(randomWindow(random, windowLength, alphabet));
+            String[] sorted = set.toArray(new String[0]);
+            Arrays.sort(sorted);
+            HashMap<String, Integer> ranks = new HashMap<String, Integer>();
+            for (int i = 0; i < sorted.length; i++) ranks.put(sorted[i], i);
+            ContextDictionary dictionary = new ContextDictionary(set.toArray(new String[0]), windowLength);
+            res = dictionary.getSize() == sorted.length;
+            for (int i = 0; res && i < sorted.length; i++) {
+                res = dictionary.window(i).equals(sorted[i]) && dictionary.rank(sorted[i]) == i;
+            }
+            for (int i = 0; res && i < 100; i++) {
+                // one more character of the alphabet, so some probes are not in the dictionary
+                String probe = randomWindow(random, windowLength, alphabet + 1);
+                Integer expected = ranks.get(probe);
+                int rank = (expected == null) ? -1 : expected;
+                String text = randomWindow(random, 3, alphabet) + probe + randomWindow(random, 2, alphabet);
+                res = dictionary.rank(probe) == rank && dictionary.rank(text, 3) == rank;
+            }
+            res = res && dictionary.rank(sorted.length > 0 ? sorted[0] + "a" : "a") == -1;
+        }
+        if (!res){
+            System.out.println("ContextDictionary Test failed");
+        }
+        return res;
+    }
+
+    // Returns a random window of the given length, of the first characters of the alphabet
+    private static String randomWindow(Random random, int length, int alphabet) {
+        char[] window = new char[length];
+        for (int i = 0; i < length; i++) window[i] = (char) ('a' + random.nextInt(alphabet));
+        return new String(window);
+    }
+
+    // Test method for the TieredModel class
+    public static boolean testTieredModel() {
+        LanguageModel model = new LanguageModel(4,20);
+        model.train("originofspecies.txt");
+        String expected = model.generate("Natu", 100000);
+        boolean res = true;
+        // whatever windows are hot, the texts are the same as those of the model
+        for (int maxHot : new int[] {0, 100, Integer.MAX_VALUE}) {
+            TieredModel tiered = new TieredModel(model, maxHot, 20);
+            res = res && tiered.generate("Natu", 100000).equals(expected)
+                && tiered.getHotSize() <= maxHot && tiered.getHotSize() == tiered.getPromotions() - tiered.getDemotions();
+            if (maxHot == 0) res = res && tiered.getPromotions() == 0 && tiered.hotHitRate() == 0;
+            else res = res && tiered.getPromotions() > 0 && tiered.hotHitRate() > 0;
+        }
+        // threads that share a model keep its tiers consistent
+        TieredModel shared = new TieredModel(model, 100, 20);
+        Thread[] threads = new Thread[4];
+        AtomicBoolean ok = new AtomicBoolean(true);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 20; j++) {
+                    if (shared.generate("Natu", 5000).length() != 5004) ok.set(false);
+                }
+            });
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            res = false;
+        }
+        res = res && ok.get() && shared.getHotSize() <= 100
+            && shared.getHotSize() == shared.getPromotions() - shared.getDemotions();
+        if (!res){
+            System.out.println("TieredModel Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the ConcurrentModelBuilder class
+    public static boolean testConcurrentModelBuilder() {
+        LanguageModel expected = new LanguageModel(4,20);
+        expected.train("shakespeareinlove.txt");
+        ConcurrentModelBuilder single = new ConcurrentModelBuilder(4);
+        single.train("shakespeareinlove.txt");
+        boolean res = sameLists(expected, single.build(20));
+        // four threads count the same corpus: the counters are four times larger, and the
+        // lists have the same characters in the same order, with the same probabilities
+        ConcurrentModelBuilder builder = new ConcurrentModelBuilder(4);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> builder.train("shakespeareinlove.txt"));
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            res = false;
+        }
+        LanguageModel built = builder.build(20);
+        res = res && built.CharDataMap.size() == expected.CharDataMap.size();
+        for (String key : expected.CharDataMap.keySet()) {
+            if (!res) break;
+            CharData[] want = expected.CharDataMap.get(key).toArray();
+            List list = built.CharDataMap.get(key);
+            CharData[] got = (list == null) ? new CharData[0] : list.toArray();
+            res = got.length == want.length;
+            for (int i = 0; res && i < want.length; i++) {
+                res = got[i].chr == want[i].chr && got[i].count == threads.length * want[i].count
+                    && Math.abs(got[i].p - want[i].p) < 1e-12 && Math.abs(got[i].cp - want[i].cp) < 1e-12;
+            }
+        }
+        if (!res){
+            System.out.println("ConcurrentModelBuilder Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the ModelExporter class: exports a model whose windows and
+    // successors hold escaped characters, surrogate pairs and halves of pairs, in UTF-8,
+    // and parses the export back
+    public static boolean testModelExporter() {
+        String text = "ab\uD83D\uDE00cd\uD83D\uDE00\uDE00e\uD83Df\t\"g\\h\r\nab\uD83Dx\u0001y";
+        LanguageModel model = new LanguageModel(2,20);
+        model.train(new StringReader(text + text + text));
+        boolean res = true;
+        for (String format : new String[] {"tsv", "jsonl"}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+                model.export(out, format, true);
+            } catch (IOException e) {
+                res = false;
+            }
+            String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+            res = res && lines.length == model.CharDataMap.size();
+            String previous = "";
+            for (String line : lines) {
+                if (!res) break;
+                StringBuilder key = new StringBuilder();
+                ArrayList<String> successors = new ArrayList<String>();
+                if (format.equals("tsv")) {
+                    String[] fields = line.split("\t", -1);
+                    unescape(fields[0], 0, fields[0].length(), key);
+                    for (int i = 1; i < fields.length; i++) {
+                        // the character is followed by 3 numbers
+                        int end = fields[i].length();
+                        for (int j = 0; j < 3; j++) end = fields[i].lastIndexOf(' ', end - 1);
+                        StringBuilder c = new StringBuilder();
+                        unescape(fields[i], 0, end, c);
+                        successors.add(c + fields[i].substring(end));
+                    }
+                } else {
+                    int position = readJsonString(line, "{\"window\":".length(), key);
+                    position += ",\"successors\":[".length();
+                    while (line.charAt(position) == '[') {
+                        StringBuilder c = new StringBuilder();
+                        position = readJsonString(line, position + 1, c);
+                        int end = line.indexOf(']', position);
+                        successors.add(c + line.substring(position, end).replace(',', ' '));
+                        position = end + 1;
+                        if (line.charAt(position) == ',') position++;
+                    }
+                }
+                // the line has the window and its list, and the windows are sorted
+                List probs = model.CharDataMap.get(key.toString());
+                res = probs != null && key.toString().compareTo(previous) > 0
+                    && successors.size() == probs.getSize();
+                previous = key.toString();
+                for (int i = 0; res && i < successors.size(); i++) {
+                    CharData cd = probs.get(i);
+                    res = successors.get(i).equals(cd.chr + " " + cd.count + " " + cd.p + " " + cd.cp);
+                }
+            }
+        }
+        if (!res){
+            System.out.println("ModelExporter Test failed");
+        }
+        return res;
+    }
+
+    // Reads the JSON string that starts with the quote at the given position of the line
+    // into out, and returns the position after its closing quote
+    private static int readJsonString(String line, int position, StringBuilder out) {
+        int end = position + 1;
+        while (line.charAt(end) != '"') end += line.charAt(end) == '\\' ? 2 : 1;
+        unescape(line, position + 1, end, out);
+        return end + 1;
+    }
+
+    // Appends the characters of s from from to to, unescaping the escapes of ModelExporter
+    private static void unescape(String s, int from, int to, StringBuilder out) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            c = s.charAt(++i);
+            switch (c) {
+                case 't': out.append('\t'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 'u':
+                    out.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    // Test method for reading with In: readAll, readLine, isEmpty and the bulk methods
+    // (readChars and reader), also after the scanner has buffered input
+    public static boolean testIn() {
+        String text = "first line\r\nsecond  line\n\nthird\u2028fourth\r\u00E9t\u00E9 \t\n  ";
+        boolean res = true;
+        File file = null;
+        try {
+            file = tempFile(text);
+            res = new In(file).readAll().equals(text) && readAll(new In(file.getPath()).reader()).equals(text);
+            // the lines, as Scanner.nextLine reads them, and null at the end. Only
+            // whitespace is left before the last line, so the input is empty then.
+            In in = new In(file);
+            String[] lines = {"first line", "second  line", "", "third", "fourth", "\u00E9t\u00E9 \t", "  "};
+            for (String line : lines) {
+                res = res && in.isEmpty() == line.equals("  ") && line.equals(in.readLine());
+            }
+            res = res && in.readLine() == null && in.isEmpty() && !in.hasNextLine();
+            // only whitespace is left after the tokens
+            in = new In(file);
+            for (String token : new String[] {"first", "line", "second", "line", "third", "fourth", "\u00E9t\u00E9"}) {
+                res = res && !in.isEmpty() && in.readString().equals(token);
+            }
+            res = res && in.isEmpty();
+            // the bulk methods continue where the scanner stopped
+            in = new In(file);
+            res = res && in.readString().equals("first") && readAll(in.reader()).equals(text.substring(5));
+            in = new In(file);
+            char[] buf = new char[4];
+            res = res && in.readChars(buf, 0, 4) == 4 && new String(buf).equals("firs")
+                && in.readLine().equals("t line") && in.readChar() == 's';
+            // a large corpus is read the same way by the scanner and by blocks
+            res = res && new In("originofspecies.txt").readAll().equals(readAll(new In("originofspecies.txt").reader()));
+            file.delete();
+            file = tempFile("");
+            in = new In(file);
+            res = res && in.isEmpty() && !in.hasNextLine() && in.readChars(buf, 0, 4) == -1
+                && in.readLine() == null && new In(file).readAll().equals("");
+        } catch (IOException e) {
+            res = false;
+        } finally {
+            if (file != null) file.delete();
+        }
+        if (!res){
+            System.out.println("In Test failed");
+        }
+        return res;
+    }
+
+    // Returns a temporary file with the given text, in UTF-8
+    private static File tempFile(String text) throws IOException {
+        File file = File.createTempFile("intest", ".txt");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // Returns all the text that is read from the given reader, and closes it
+    private static String readAll(Reader in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buf = new char[1000];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) text.append(buf, 0, n);
+        in.close();
+        return text.toString();
+    }
+
+    // Test method for the readAll methods of In (see In.Tokenizer), including tokens
+    // and line ends that cross the blocks in which the tokenizer reads
+    public static boolean testInTokenizer() {
+        StringBuilder text = new StringBuilder("  alpha\tbeta\u00A0gamma\u2028delta\r\n\r\n");
+        // a token crosses the first block, and a \r\n the second one
+        while (text.length() < 8186) text.append(text.length() % 5 == 0 ? "word " : " ");
+        text.append("straddles");
+        while (text.length() < 16383) text.append(text.length() % 5 == 0 ? "word " : " ");
+        text.setLength(16383);
+        text.append("\r\n\u0085last line \u3000");
+        boolean res = true;
+        File file = null;
+        try {
+            file = tempFile(text.toString());
+            // the same tokens and lines as the regular expressions of Scanner (a no-break
+            // space is not whitespace, and U+2028 ends a line)
+            String[] tokens = text.toString().trim().split("\\p{javaWhitespace}+");
+            String[] lines = text.toString().split("\r\n|[\n\r\u2028\u2029\u0085]");
+            res = Arrays.equals(new In(file).readAllStrings(), tokens)
+                && Arrays.equals(new In(file).readAllLines(), lines)
+                && tokens[1].equals("beta\u00A0gamma") && Arrays.asList(tokens).contains("straddles");
+            // the readAll methods continue where the scanner stopped
+            In in = new In(file);
+            res = res && in.readString().equals("alpha") && in.readLine().equals("\tbeta\u00A0gamma")
+                && Arrays.equals(in.readAllStrings(), Arrays.copyOfRange(tokens, 2, tokens.length));
+            file.delete();
+            file = tempFile("1 -2 +3\n2147483647 -2147483648 007 ");
+            res = res && Arrays.equals(new In(file).readAllInts(), new int[] {1, -2, 3, 2147483647, -2147483648, 7})
+                && Arrays.equals(new In(file).readAllLongs(), new long[] {1, -2, 3, 2147483647, -2147483648, 7});
+            file.delete();
+            file = tempFile("9223372036854775807 -9223372036854775808 123456789012345678");
+            res = res && Arrays.equals(new In(file).readAllLongs(),
+                new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 123456789012345678L});
+            file.delete();
+            String[] doubles = {"1", "-0", "0", "2.5", "1e3", "-1.5E-3", "NaN", "-Infinity", "9007199254740993", "12345678901234567890"};
+            file = tempFile(String.join(" ", doubles));
+            double[] values = new In(file).readAllDoubles();
+            res = res && values.length == doubles.length;
+            for (int i = 0; res && i < doubles.length; i++) {
+                res = Double.compare(values[i], Double.parseDouble(doubles[i])) == 0;
+            }
+            // tokens that are not numbers, or do not fit, are rejected like the library does
+            for (String bad : new String[] {"2147483648", "12x", "-", "1.0"}) {
+                file.delete();
+                file = tempFile("1 " + bad);
+                try {
+                    new In(file).readAllInts();
+                    res = false;
+                } catch (NumberFormatException e) {
+                    // expected
+                }
+            }
+            file.delete();
+            file = tempFile(" \n\t ");
+            res = res && new In(file).readAllStrings().length == 0 && new In(file).readAllInts().length == 0
+                && new In(file).readAllLines().length == 2;
+        } catch (IOException e) {
+            res = false;
+        } finally {
+            if (file != null) file.delete();
+        }
+        if (!res){
+            System.out.println("In Tokenizer Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the GenerationPublisher class. The publisher runs its drain loops
+    // on a queue of tasks that the test runs, so every signal can be checked in order.
+    public static boolean testGenerationPublisher() {
+        LanguageModel expected = new LanguageModel(4,20);
+        expected.normalizeWith(new Normalizer(true, true, true));
+        expected.train("shakespeareinlove.txt");
+        String text = expected.generate("THE  Theatre", 300);
+        LanguageModel model = new LanguageModel(4,20);
+        model.normalizeWith(new Normalizer(true, true, true));
+        model.train("shakespeareinlove.txt");
+        ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+        GenerationPublisher publisher = new GenerationPublisher(model, "THE  Theatre", 300, 100, tasks::add);
+        // only the requested chunks are sent, and onComplete follows the last chunk
+        // without more demand
+        ChunkSubscriber subscriber = new ChunkSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(2);
+        runAll(tasks);
+        boolean res = subscriber.chunks.size() == 2 && subscriber.chunks.get(0).equals("the theatre")
+            && subscriber.completed == 0;
+        subscriber.subscription.request(2);
+        runAll(tasks);
+        res = res && subscriber.chunks.size() == 4 && subscriber.completed == 1 && subscriber.error == null
+            && String.join("", subscriber.chunks).equals(text);
+        subscriber.subscription.request(5);
+        runAll(tasks);
+        res = res && subscriber.chunks.size() == 4 && subscriber.completed == 1;
+        // no chunks are sent after cancel
+        subscriber = new ChunkSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        runAll(tasks);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(5);
+        runAll(tasks);
+        res = res && subscriber.chunks.size() == 1 && subscriber.completed == 0 && subscriber.error == null;
+        // a non-positive request is an error, which is sent by the drain loop, not by request
+        subscriber = new ChunkSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        res = res && subscriber.error == null;
+        runAll(tasks);
+        res = res && subscriber.error instanceof IllegalArgumentException && subscriber.chunks.isEmpty();
+        subscriber.subscription.request(5);
+        runAll(tasks);
+        res = res && subscriber.chunks.isEmpty() && subscriber.completed == 0;
+        // a subscriber whose onNext throws gets the exception in onError, and no more chunks
+        subscriber = new ChunkSubscriber() {
+            public void onNext(CharSequence chunk) {
+                super.onNext(chunk);
+                if (chunks.size() == 2) throw new IllegalStateException("onNext failed");
+            }
+        };
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(3);
+        runAll(tasks);
+        subscriber.subscription.request(5);
+        runAll(tasks);
+        res = res && subscriber.chunks.size() == 2 && subscriber.completed == 0
+            && subscriber.error instanceof IllegalStateException;
+        // a text that stops early (at an unseen window, or a short initial text) completes too
+        for (String initial : new String[] {"qxqx", "the"}) {
+            subscriber = new ChunkSubscriber();
+            new GenerationPublisher(model, initial, 300, 100, tasks::add).subscribe(subscriber);
+            subscriber.subscription.request(1);
+            runAll(tasks);
+            res = res && subscriber.chunks.size() == 1 && subscriber.chunks.get(0).equals(initial)
+                && subscriber.completed == 1;
+        }
+        if (!res){
+            System.out.println("GenerationPublisher Test failed");
+        }
+        return res;
+    }
+
+    // Runs the given tasks, including the tasks that they add, and removes them
+    private static void runAll(ArrayList<Runnable> tasks) {
+        while (!tasks.isEmpty()) tasks.remove(0).run();
+    }
+
+    // Collects the chunks and the signals of a subscription
+    private static class ChunkSubscriber implements Flow.Subscriber<CharSequence> {
+        Flow.Subscription subscription;
+        final ArrayList<String> chunks = new ArrayList<String>();
+        int completed;
+        Throwable error;
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(CharSequence chunk) {
+            chunks.add(chunk.toString());
+        }
+
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        public void onComplete() {
+            completed++;
+        }
+    }
+
+    // Checks that the two models have the same windows, with the same lists
+    private static boolean sameLists(LanguageModel expected, LanguageModel actual) {
+        boolean res = expected.CharDataMap.size() == actual.CharDataMap.size();
+        for (String key : expected.CharDataMap.keySet()) {
+            res = res && expected.CharDataMap.get(key).toString().equals("" + actual.CharDataMap.get(key));
+        }
+        return res;
+    }
+
     private static boolean stringEqualsNoSpaces(String s1, String s2) {
         s1 = s1.replaceAll("\\s+", "");
         s2 = s2.replaceAll("\\s+", "");
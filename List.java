@@ -37,15 +37,13 @@ public class List {
     /** GIVE Textual representation of this list. */
     public String toString() {
         ListIterator list = new ListIterator(first);
-        String s = "";
+        StringBuilder s = new StringBuilder("(");
         while (list.hasNext()) {
-            s += list.next().toString() + " ";
+            s.append(list.next().toString());
+            if (list.hasNext()) s.append(' ');
         }
-        if (s!="") {
-            s = s.substring(0,s.length()-1); // take off final space ' '
-        }
-        s = "(" + s + ")";
-        return s;
+        s.append(')');
+        return s.toString();
     }
 
     /** Returns the index of the first CharData object in this list
@@ -1,5 +1,6 @@
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.Random;
 
 public class ListTester {
     public static void main(String[] args) {
@@ -24,6 +25,12 @@ public class ListTester {
             case "remove":
                 result = testRemove();
                 break;
+            case "arrayList":
+                result = testArrayList();
+                break;
+            case "successorSearch":
+                result = testSuccessorSearch();
+                break;
             
             case "all":
                 result = testAddFirst();
@@ -32,6 +39,8 @@ public class ListTester {
                 result = result && testGet();
                 result = result && testUpdate();
                 result = result && testRemove();
+                result = result && testArrayList();
+                result = result && testSuccessorSearch();
                 break; 
             default:
                 break;
@@ -257,4 +266,124 @@ public class ListTester {
         return true;
     }
     
+
+    // Checks that ArrayCharList behaves exactly like List
+    public static boolean testArrayList() {
+        boolean result = true;
+        String [] testWords = {"computer_science", "william_shakespeare", "lexicographic"};
+        for (int i = 0; i < testWords.length; i++) {
+            String w = testWords[i];
+            List list = new List();
+            ArrayCharList arrayList = new ArrayCharList();
+            for (int j = 0; j < w.length(); j++) {
+                list.update(w.charAt(j));
+                arrayList.update(w.charAt(j));
+            }
+            boolean res = list.toString().equals(arrayList.toString()) && list.getSize() == arrayList.getSize();
+            for (int j = 0; j < w.length(); j++) {
+                res = res && list.indexOf(w.charAt(j)) == arrayList.indexOf(w.charAt(j));
+            }
+            for (int j = 0; j < list.getSize(); j++) {
+                res = res && list.get(j).toString().equals(arrayList.get(j).toString());
+            }
+            res = res && list.remove(w.charAt(2)) == arrayList.remove(w.charAt(2));
+            res = res && list.remove('#') == arrayList.remove('#');
+            res = res && list.toString().equals(arrayList.toString());
+            // the returned objects are copies, so changing them does not change the list
+            arrayList.get(1).count += 10;
+            arrayList.toArray()[0].count++;
+            arrayList.listIterator(2).next().p = 0.5;
+            res = res && list.toString().equals(arrayList.toString());
+            // charAt samples by the probabilities of the list
+            new LanguageModel(1).calculateProbabilities(list);
+            arrayList.calculateProbabilities();
+            res = res && list.toString().equals(arrayList.toString());
+            for (double rand = 0; rand < 1; rand += 0.01) {
+                res = res && arrayList.charAt(rand) == charAt(list, rand);
+            }
+            try {
+                arrayList.listIterator(-1);
+                res = false;
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+            if (!res){
+                System.out.println("Word: " + w);
+                System.out.println("Expected: " + list);
+                System.out.println("Actual: " + arrayList);
+            }
+            result = result && res;
+        }
+        if (!result){
+            System.out.println("ArrayList Test failed");
+        }
+        return result;
+    }
+
+    // Checks the searches of SuccessorSearch against plain linear scans, for list sizes on
+    // both sides of the binary search threshold and of the unrolled loop width, and
+    // checks that ArrayCharList.charAt samples like List
+    public static boolean testSuccessorSearch() {
+        boolean result = true;
+        Random random = new Random(20);
+        for (int size = 0; size <= 3 * SuccessorSearch.BINARY_SEARCH_THRESHOLD + 5 && result; size++) {
+            for (int round = 0; round < 20 && result; round++) {
+                // a small alphabet, so that some searched characters repeat or are missing
+                char[] chr = new char[size];
+                for (int i = 0; i < size; i++) chr[i] = (char) ('a' + random.nextInt(size + 2));
+                for (char c = 'a'; c < 'a' + size + 3; c++) {
+                    int expected = -1;
+                    for (int i = 0; i < size; i++) {
+                        if (chr[i] == c) expected = i;
+                    }
+                    result = result && SuccessorSearch.lastPosition(chr, size, c) == expected;
+                }
+                List list = new List();
+                ArrayCharList arrayList = new ArrayCharList();
+                for (int i = 0; i < 3 * size; i++) {
+                    char c = (char) ('a' + random.nextInt(size + 1));
+                    list.update(c);
+                    arrayList.update(c);
+                }
+                new LanguageModel(1).calculateProbabilities(list);
+                arrayList.calculateProbabilities();
+                int n = arrayList.getSize();
+                // random numbers, the commulative probabilities themselves, and the ends
+                double[] rands = new double[40 + n];
+                for (int i = 0; i < 40; i++) rands[i] = random.nextDouble();
+                for (int i = 0; i < n; i++) rands[40 + i] = arrayList.cp[i];
+                rands[0] = 0;
+                rands[1] = Math.nextDown(1.0);
+                for (double rand : rands) {
+                    int expected = -1;
+                    for (int i = n - 1; i >= 0 && expected == -1; i--) {
+                        if (rand < arrayList.cp[i]) expected = i;
+                    }
+                    boolean res = SuccessorSearch.cpPosition(arrayList.cp, n, rand) == expected
+                        && SuccessorSearch.cpPosition(arrayList.cp, n, rand, 0) == expected
+                        && SuccessorSearch.cpPosition(arrayList.cp, n, rand, Integer.MAX_VALUE) == expected
+                        && arrayList.charAt(rand) == charAt(list, rand);
+                    if (!res) {
+                        System.out.println("Size: " + n + ", rand: " + rand + ", list: " + list);
+                    }
+                    result = result && res;
+                }
+            }
+        }
+        if (!result){
+            System.out.println("SuccessorSearch Test failed");
+        }
+        return result;
+    }
+
+    // Returns the character that LanguageModel.getRandomChar(list) returns for the given
+    // random number
+    private static char charAt(List list, double rand) {
+        ListIterator itr = list.listIterator(0);
+        while (itr != null && itr.hasNext()) {
+            CharData cd = itr.next();
+            if (rand < cd.cp) return cd.chr;
+        }
+        return ' ';
+    }
 }
@@ -0,0 +1,204 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A cache of trained language models, kept in a local directory.
+ *  A model is stored under a key that is made of the SHA-256 digest of the contents
+ *  of its corpus, the window length, and the training options. Training a model whose
+ *  key is in the cache loads the stored model instead of reading the corpus again.
+ *  When the stored models take more than the given number of bytes, the least recently
+ *  used ones are deleted. Several processes can share the same cache directory: all
+ *  the changes to the directory are made while holding a lock on its lock file. */
+public class ModelCache {
+
+    // The suffix of the files that hold cached models
+    private static final String SUFFIX = ".model";
+
+    // Serializes the threads of this process, since file locks are held per process
+    private static final Object PROCESS_LOCK = new Object();
+
+    // The cache directory
+    private final Path dir;
+
+    // The maximal number of bytes of all the cached models
+    private final long maxBytes;
+
+    // The number of hits and misses of this cache
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /** Constructs a cache in the given directory, which holds at most maxBytes
+     *  bytes of models. The directory is created if it does not exist. */
+    public ModelCache(String dir, long maxBytes) {
+        this.dir = new File(dir).toPath();
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(this.dir);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not create " + dir, e);
+        }
+    }
+
+    /** Trains the given empty model from the given corpus, like model.train(fileName).
+     *  If a model with the same corpus and window length is in the cache, loads it into
+     *  the given model. Otherwise, trains the model and stores it in the cache.
+     *  The normalizer of the model, if any, is part of the key. */
+    public void train(LanguageModel model, String fileName) {
+        Normalizer normalizer = model.getNormalizer();
+        train(model, fileName, (normalizer == null) ? "" : normalizer.toString());
+    }
+
+    /** Same as train(model, fileName), for a model that was trained with the given options.
+     *  The options are only part of the key; callers must apply them to the model.
+     *  Throws an IllegalArgumentException if the model is not empty, since its counts
+     *  would be mixed with those of the cached model. */
+    public void train(LanguageModel model, String fileName, String options) {
+        if (!model.CharDataMap.isEmpty()) {
+            throw new IllegalArgumentException("the model is not empty");
+        }
+        Path file = dir.resolve(key(fileName, model.windowLength, options) + SUFFIX);
+        synchronized (PROCESS_LOCK) {
+            try {
+                FileLock lock = lock();
+                try {
+                    if (Files.exists(file)) {
+                        try (DataInputStream in = new DataInputStream(
+                                new BufferedInputStream(Files.newInputStream(file)))) {
+                            model.load(in);
+                        }
+                        // marks the model as recently used
+                        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                        hits.incrementAndGet();
+                        return;
+                    }
+                } finally {
+                    unlock(lock);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // trains without holding the lock, so other processes can use the cache
+        model.train(fileName);
+        synchronized (PROCESS_LOCK) {
+            misses.incrementAndGet();
+            try {
+                FileLock lock = lock();
+                try {
+                    Path temp = Files.createTempFile(dir, "model", ".tmp");
+                    try (DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                        model.save(out);
+                    }
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    evict();
+                } finally {
+                    unlock(lock);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Returns the number of times a model was loaded from this cache. */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of times a model had to be trained. */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /** Returns the cache key of the given corpus, window length and training options. */
+    public static String key(String fileName, int windowLength, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1 << 16];
+            try (InputStream in = Files.newInputStream(new File(fileName).toPath())) {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            digest.update(("|" + windowLength + "|" + options).getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not open " + fileName, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Deletes the least recently used models, until the cache fits in maxBytes.
+    // Should be called while holding the lock.
+    private void evict() throws IOException {
+        ArrayList<Path> models = new ArrayList<Path>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path model : files) {
+                models.add(model);
+                total += Files.size(model);
+            }
+        }
+        models.sort(Comparator.comparing(ModelCache::lastModified));
+        for (int i = 0; i < models.size() && total > maxBytes; i++) {
+            total -= Files.size(models.get(i));
+            Files.delete(models.get(i));
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Locks the lock file of the cache directory, waiting for other processes.
+    // The lock must be released with unlock.
+    private FileLock lock() throws IOException {
+        FileChannel channel = FileChannel.open(dir.resolve("cache.lock"),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            return channel.lock();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Releases the given lock, and closes its channel.
+    private static void unlock(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+}
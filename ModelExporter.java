@@ -0,0 +1,119 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Writes the map of a language model to a Writer, one window per line, without building
+ *  the whole text in memory. Two formats are supported:
+ *  "tsv" - the window, followed by a tab and, for each successor, its character,
+ *          counter, p and cp separated by spaces, with tabs between successors;
+ *  "jsonl" - a JSON object per line: {"window":"...","successors":[["c",count,p,cp],...]}.
+ *  In the tsv format, backslash, tab, newline and carriage return are written as
+ *  \\, \t, \n and \r. In both formats, a surrogate that is not part of a pair (a window
+ *  or a successor may hold half of a pair) is written as a backslash, a 'u' and its four
+ *  hex digits, since it can not be encoded in UTF-8. The windows are written in map order,
+ *  or sorted. */
+public class ModelExporter {
+
+    /** Writes the map of the given model to the given writer, in the given format. */
+    public static void export(LanguageModel model, Writer out, String format, boolean sorted) throws IOException {
+        boolean json;
+        if (format.equals("tsv")) json = false;
+        else if (format.equals("jsonl")) json = true;
+        else throw new IllegalArgumentException("unknown format " + format);
+        Iterable<String> keys = model.CharDataMap.keySet();
+        if (sorted) {
+            String[] array = model.CharDataMap.keySet().toArray(new String[0]);
+            Arrays.sort(array);
+            keys = Arrays.asList(array);
+        }
+        StringBuilder line = new StringBuilder();
+        for (String key : keys) {
+            line.setLength(0);
+            if (json) jsonLine(line, key, model.CharDataMap.get(key));
+            else tsvLine(line, key, model.CharDataMap.get(key));
+            line.append('\n');
+            out.append(line);
+        }
+        out.flush();
+    }
+
+    /** Writes the map of the given model to the given file, in the given format. */
+    public static void export(LanguageModel model, String fileName, String format, boolean sorted) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(fileName), StandardCharsets.UTF_8), 1 << 16)) {
+            export(model, out, format, sorted);
+        }
+    }
+
+    private static void tsvLine(StringBuilder line, String key, List probs) {
+        tsvEscape(line, key);
+        ListIterator itr = probs.listIterator(0);
+        while (itr != null && itr.hasNext()) {
+            CharData cd = itr.next();
+            line.append('\t');
+            tsvEscape(line, cd.chr, Character.isSurrogate(cd.chr));
+            line.append(' ').append(cd.count).append(' ').append(cd.p).append(' ').append(cd.cp);
+        }
+    }
+
+    private static void jsonLine(StringBuilder line, String key, List probs) {
+        line.append("{\"window\":\"");
+        for (int i = 0; i < key.length(); i++) jsonEscape(line, key.charAt(i), isLoneSurrogate(key, i));
+        line.append("\",\"successors\":[");
+        ListIterator itr = probs.listIterator(0);
+        boolean first = true;
+        while (itr != null && itr.hasNext()) {
+            CharData cd = itr.next();
+            if (!first) line.append(',');
+            first = false;
+            line.append("[\"");
+            jsonEscape(line, cd.chr, Character.isSurrogate(cd.chr));
+            line.append("\",").append(cd.count).append(',').append(cd.p).append(',').append(cd.cp).append(']');
+        }
+        line.append("]}");
+    }
+
+    private static void tsvEscape(StringBuilder line, String s) {
+        for (int i = 0; i < s.length(); i++) tsvEscape(line, s.charAt(i), isLoneSurrogate(s, i));
+    }
+
+    // Escapes c, which is a lone surrogate if lone is true
+    private static void tsvEscape(StringBuilder line, char c, boolean lone) {
+        switch (c) {
+            case '\\': line.append("\\\\"); break;
+            case '\t': line.append("\\t"); break;
+            case '\n': line.append("\\n"); break;
+            case '\r': line.append("\\r"); break;
+            default:
+                if (lone) line.append(String.format("\\u%04x", (int) c));
+                else line.append(c);
+        }
+    }
+
+    // Escapes c, which is a lone surrogate if lone is true
+    private static void jsonEscape(StringBuilder line, char c, boolean lone) {
+        switch (c) {
+            case '"': line.append("\\\""); break;
+            case '\\': line.append("\\\\"); break;
+            case '\n': line.append("\\n"); break;
+            case '\r': line.append("\\r"); break;
+            case '\t': line.append("\\t"); break;
+            default:
+                if (c < 0x20 || lone) line.append(String.format("\\u%04x", (int) c));
+                else line.append(c);
+        }
+    }
+
+    // Returns true if the character at position i of s is a surrogate that is not part
+    // of a pair.
+    private static boolean isLoneSurrogate(String s, int i) {
+        char c = s.charAt(i);
+        if (Character.isHighSurrogate(c)) return i + 1 == s.length() || !Character.isLowSurrogate(s.charAt(i + 1));
+        if (Character.isLowSurrogate(c)) return i == 0 || !Character.isHighSurrogate(s.charAt(i - 1));
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Holds the language model that is currently used for generating texts, and lets
+ *  a new model be trained while texts are being generated.
+ *  A new model is trained in the background, on a model object that no reader can see.
+ *  Only when its training is complete it is frozen (see LanguageModel.freeze), and
+ *  replaces the current model in one atomic step, so readers only see complete models
+ *  that can no longer change.
+ *  A generate call that started before the replacement keeps using the model it started
+ *  with. Readers never wait for training, and a replaced model becomes garbage as soon as
+ *  the last call that uses it returns. */
+public class ModelHolder {
+
+    // The window length used by the models of this holder
+    private final int windowLength;
+
+    // The seed given to new models, or null for models that produce different texts
+    private final Integer seed;
+
+    // The current model, which is frozen
+    private volatile LanguageModel current;
+
+    // Trains new models, one at a time
+    private final ExecutorService trainer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "model-trainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Constructs a holder of models with the given window length and seed value.
+     *  Until a model is trained, the holder holds an empty model. */
+    public ModelHolder(int windowLength, int seed) {
+        this.windowLength = windowLength;
+        this.seed = seed;
+        this.current = emptyModel();
+    }
+
+    /** Constructs a holder of models with the given window length. */
+    public ModelHolder(int windowLength) {
+        this.windowLength = windowLength;
+        this.seed = null;
+        this.current = emptyModel();
+    }
+
+    /** Returns the current model, which is frozen: training it throws an IllegalStateException. */
+    public LanguageModel current() {
+        return current;
+    }
+
+    /** Generates a random text from the current model (see LanguageModel.generate). */
+    public String generate(String initialText, int textLength) {
+        return current.generate(initialText, textLength);
+    }
+
+    /** Trains a new model from the given corpus in the background, and makes it the
+     *  current model when the training is complete.
+     *  @return a future that completes when the new model has become the current one */
+    public CompletableFuture<LanguageModel> retrain(String fileName) {
+        return CompletableFuture.supplyAsync(() -> {
+            LanguageModel next = newModel();
+            next.train(fileName);
+            next.freeze();
+            current = next;
+            return next;
+        }, trainer);
+    }
+
+    /** Stops the background trainer. Models can still be used for generating texts. */
+    public void shutdown() {
+        trainer.shutdown();
+    }
+
+    // Returns a new empty model
+    private LanguageModel newModel() {
+        return (seed == null) ? new LanguageModel(windowLength) : new LanguageModel(windowLength, seed);
+    }
+
+    // Returns a new empty, frozen model
+    private LanguageModel emptyModel() {
+        LanguageModel model = newModel();
+        model.freeze();
+        return model;
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/** Merges model files that were written by LanguageModel.save into one model file.
+ *  Since the windows of a saved model are sorted, the files are merged by streaming them:
+ *  only the current window of each file is held in memory. The counters of equal windows
+ *  are added, in the same way as LanguageModel.merge adds them.
+ *  The merged model is written to a temporary file, which replaces the output file only
+ *  when the merge succeeds, so a failed merge leaves no partial output.
+ *  Usage: java ModelMerger output input1 input2 ... */
+public class ModelMerger {
+
+    // The current window of one of the merged files, and its successors
+    private static class Source {
+        final int order;
+        final String name;
+        final DataInputStream in;
+        int remaining;
+        String key;
+        char[] chars;
+        int[] counts;
+
+        Source(int order, String name, DataInputStream in, int remaining) {
+            this.order = order;
+            this.name = name;
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        // Reads the next window, or sets key to null at the end of the file.
+        // Throws an IOException if the window is not greater than the previous one.
+        void next() throws IOException {
+            if (remaining == 0) {
+                key = null;
+                return;
+            }
+            remaining--;
+            String previous = key;
+            key = in.readUTF();
+            if (previous != null && key.compareTo(previous) <= 0) {
+                throw new IOException("the windows of " + name + " are not sorted: \""
+                    + key + "\" follows \"" + previous + "\"");
+            }
+            int size = in.readInt();
+            chars = new char[size];
+            counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                chars[i] = in.readChar();
+                counts[i] = in.readInt();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] inputs = new String[args.length - 1];
+        System.arraycopy(args, 1, inputs, 0, inputs.length);
+        merge(args[0], inputs);
+    }
+
+    /** Merges the given model files into the given output file.
+     *  @throws IllegalArgumentException if the models have different window lengths
+     *  @throws UncheckedIOException if a file can not be read or written, or the windows
+     *  of a model are not sorted */
+    public static void merge(String output, String... inputs) {
+        Path target = Paths.get(output).toAbsolutePath();
+        Path temp;
+        try {
+            temp = Files.createTempFile(target.getParent(), "merge", ".tmp");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            merge(temp, inputs);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    // Merges the given model files into the given (temporary) file.
+    private static void merge(Path output, String... inputs) throws IOException {
+        Source[] sources = new Source[inputs.length];
+        // the files with the smallest current window come first, in input order
+        PriorityQueue<Source> queue = new PriorityQueue<Source>(Math.max(1, inputs.length), (a, b) -> {
+            int c = a.key.compareTo(b.key);
+            return (c != 0) ? c : Integer.compare(a.order, b.order);
+        });
+        int windowLength = -1;
+        int numOfWindows = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+            for (int i = 0; i < inputs.length; i++) {
+                DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(inputs[i]), 1 << 16));
+                int length = in.readInt();
+                if (windowLength != -1 && length != windowLength) {
+                    in.close();
+                    throw new IllegalArgumentException("window length " + length + " of " + inputs[i]
+                        + " does not match " + windowLength);
+                }
+                windowLength = length;
+                sources[i] = new Source(i, inputs[i], in, in.readInt());
+                sources[i].next();
+                if (sources[i].key != null) queue.add(sources[i]);
+            }
+            out.writeInt(windowLength);
+            out.writeInt(0); // the number of windows is written at the end
+
+            char[] chars = new char[16];
+            int[] counts = new int[16];
+            while (!queue.isEmpty()) {
+                String key = queue.peek().key;
+                int size = 0;
+                while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                    Source source = queue.poll();
+                    // new characters go to the beginning, in the order they were first counted
+                    for (int i = source.chars.length - 1; i >= 0; i--) {
+                        int index = -1;
+                        for (int j = 0; j < size; j++) {
+                            if (chars[j] == source.chars[i]) index = j;
+                        }
+                        if (index == -1) {
+                            if (size == chars.length) {
+                                chars = Arrays.copyOf(chars, 2 * size);
+                                counts = Arrays.copyOf(counts, 2 * size);
+                            }
+                            System.arraycopy(chars, 0, chars, 1, size);
+                            System.arraycopy(counts, 0, counts, 1, size);
+                            chars[0] = source.chars[i];
+                            counts[0] = source.counts[i];
+                            size++;
+                        } else {
+                            counts[index] += source.counts[i];
+                        }
+                    }
+                    source.next();
+                    if (source.key != null) queue.add(source);
+                }
+                out.writeUTF(key);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeChar(chars[i]);
+                    out.writeInt(counts[i]);
+                }
+                numOfWindows++;
+            }
+        } finally {
+            for (Source source : sources) {
+                if (source == null) continue;
+                try {
+                    source.in.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+            file.seek(4);
+            file.writeInt(numOfWindows);
+        }
+    }
+}
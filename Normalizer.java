@@ -0,0 +1,104 @@
+/** Normalizes the characters of a corpus while it is counted, so that windows that differ
+ *  only in case, line breaks or repeated spaces become the same window. The steps, each of
+ *  which can be turned off, are applied to every character in this order:
+ *  control characters (other than whitespace) are dropped; letters are lowercased;
+ *  a run of whitespace characters becomes a single space; and a character that is not in
+ *  the alphabet becomes the placeholder (a collapsed space is always kept).
+ *  A normalizer is immutable, so it can be shared by threads. The state of the normalization
+ *  of one text (whether the last character was whitespace) is kept in a Cursor. */
+public class Normalizer {
+
+    // Returned by apply for a character that is dropped
+    static final int DROP = -1;
+
+    // The steps
+    private final boolean lowercase;
+    private final boolean collapseWhitespace;
+    private final boolean dropControl;
+
+    // The characters that are kept (null if all are kept), indexed by character,
+    // and the character that replaces the others
+    private final String alphabet;
+    private final boolean[] inAlphabet;
+    private final char placeholder;
+
+    /** Constructs a normalizer with the given steps, that keeps all the characters. */
+    public Normalizer(boolean lowercase, boolean collapseWhitespace, boolean dropControl) {
+        this(lowercase, collapseWhitespace, dropControl, null, ' ');
+    }
+
+    /** Constructs a normalizer with the given steps, that replaces the characters that are
+     *  not in the given alphabet (after lowercasing) with the given placeholder.
+     *  If alphabet is null, all the characters are kept. */
+    public Normalizer(boolean lowercase, boolean collapseWhitespace, boolean dropControl,
+                      String alphabet, char placeholder) {
+        this.lowercase = lowercase;
+        this.collapseWhitespace = collapseWhitespace;
+        this.dropControl = dropControl;
+        this.alphabet = alphabet;
+        this.placeholder = placeholder;
+        if (alphabet == null) {
+            this.inAlphabet = null;
+        } else {
+            int max = 0;
+            for (int i = 0; i < alphabet.length(); i++) max = Math.max(max, alphabet.charAt(i));
+            this.inAlphabet = new boolean[max + 1];
+            for (int i = 0; i < alphabet.length(); i++) inAlphabet[alphabet.charAt(i)] = true;
+        }
+    }
+
+    /** The normalization of one text, by this normalizer: a text is normalized by
+     *  applying a new cursor to each of its characters, in order. */
+    public class Cursor {
+
+        // Whether the last character that was kept is a whitespace character
+        private boolean afterWhitespace;
+
+        /** Returns the normalized form of the next character of the text, or DROP if the
+         *  character is dropped. */
+        int apply(char c) {
+            if (dropControl && Character.isISOControl(c) && !Character.isWhitespace(c)) return DROP;
+            if (Character.isWhitespace(c)) {
+                if (collapseWhitespace) {
+                    if (afterWhitespace) return DROP;
+                    afterWhitespace = true;
+                    return ' ';
+                }
+                afterWhitespace = true;
+            } else {
+                afterWhitespace = false;
+                if (lowercase) c = Character.toLowerCase(c);
+            }
+            if (inAlphabet != null && (c >= inAlphabet.length || !inAlphabet[c])) return placeholder;
+            return c;
+        }
+    }
+
+    /** Returns a cursor for normalizing a new text. */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /** Returns the normalized form of the given text (for example, the initial text of
+     *  LanguageModel.generate). */
+    public String normalize(String text) {
+        Cursor cursor = new Cursor();
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            int c = cursor.apply(text.charAt(i));
+            if (c != DROP) result.append((char) c);
+        }
+        return result.toString();
+    }
+
+    /** Returns a description of the steps of this normalizer, which is the same for
+     *  normalizers that normalize the same way (used as a ModelCache option). */
+    public String toString() {
+        String s = "normalize";
+        if (lowercase) s += ",lowercase";
+        if (collapseWhitespace) s += ",collapse";
+        if (dropControl) s += ",nocontrol";
+        if (alphabet != null) s += ",alphabet=" + alphabet + ",placeholder=" + placeholder;
+        return s;
+    }
+}
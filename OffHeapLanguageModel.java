@@ -0,0 +1,425 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/** A language model that keeps its windows, successor characters and counts
+ *  outside the Java heap, in a few direct buffers.
+ *  (The windows are stored back to back in one char buffer, and are found through
+ *  an open addressing hash index. The successors of each window are kept as a chain
+ *  of entries, in the same order as the CharData objects of a List.)
+ *  Whatever the size of the model, the heap holds only this object and its buffers.
+ *  Trained with the same corpus, window length and seed, this model generates
+ *  exactly the same texts as LanguageModel.
+ *  The memory of a buffer is freed as soon as the buffer is replaced by a larger one, and
+ *  all the memory is freed by close, through sun.misc.Unsafe.invokeCleaner. (If that
+ *  method is not available, the memory is freed later, by the cleaners of the buffers,
+ *  once they are garbage collected.) A model is limited to buffers of 2 GB. */
+public class OffHeapLanguageModel implements AutoCloseable {
+
+    // Marks the end of a chain of entries
+    private static final int NIL = -1;
+
+    // The sun.misc.Unsafe instance and its invokeCleaner method, or null if not available
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    // The window length used in this model.
+    int windowLength;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    // The windows of this model, stored back to back (window i starts at i * windowLength)
+    private CharBuffer windows;
+
+    // For each window, the index of its first entry and the total count of its successors
+    private IntBuffer firstEntry;
+    private IntBuffer totalCount;
+
+    // The number of windows in this model
+    private int numOfWindows;
+
+    // Open addressing hash index. Each slot holds a window index + 1, or 0 if empty.
+    private IntBuffer index;
+
+    // The successor entries: a character, a counter, a commulative probability,
+    // and the index of the next entry of the same window
+    private CharBuffer entryChr;
+    private IntBuffer entryCount;
+    private DoubleBuffer entryCp;
+    private IntBuffer entryNext;
+
+    // The number of entries in this model
+    private int numOfEntries;
+
+    // The direct buffer of each of the above views, for freeing its memory
+    private final IdentityHashMap<Buffer, ByteBuffer> memory = new IdentityHashMap<Buffer, ByteBuffer>();
+
+    // True once the model was closed
+    private boolean closed;
+
+    /** Constructs an off-heap language model with the given window length and a given
+     *  seed value. */
+    public OffHeapLanguageModel(int windowLength, int seed) {
+        this(windowLength, new Random(seed));
+    }
+
+    /** Constructs an off-heap language model with the given window length. */
+    public OffHeapLanguageModel(int windowLength) {
+        this(windowLength, new Random());
+    }
+
+    private OffHeapLanguageModel(int windowLength, Random randomGenerator) {
+        this.windowLength = windowLength;
+        this.randomGenerator = randomGenerator;
+        int contexts = 1024;
+        windows = charBuffer((long) contexts * windowLength);
+        firstEntry = intBuffer(contexts);
+        totalCount = intBuffer(contexts);
+        index = intBuffer(contexts * 2);
+        entryChr = charBuffer(contexts);
+        entryCount = intBuffer(contexts);
+        entryCp = doubleBuffer(contexts);
+        entryNext = intBuffer(contexts);
+    }
+
+    /** Builds the model from the text in the given file (the corpus).
+     *  Reads the corpus exactly like LanguageModel.train. */
+    public void train(String fileName) {
+        checkOpen();
+        char[] window = new char[windowLength];
+        In in = new In(fileName);
+
+        // build first window
+        for (int i = 0; i < windowLength; i++) {
+            if (!in.hasNextChar()) return;
+            window[i] = in.readChar();
+        }
+
+        int start = 0; // the window is a ring: it starts at window[start]
+        while (!in.isEmpty()) {
+            char c = in.readChar();
+            update(findOrAdd(window, start), c);
+            // move window fowards by 1 character
+            if (windowLength > 0) {
+                window[start] = c;
+                start = (start + 1) % windowLength;
+            }
+        }
+        calculateProbabilities();
+    }
+
+    /** Generates a random text, based on the probabilities that were learned during training.
+     *  Works like LanguageModel.generate. */
+    public String generate(String initialText, int textLength) {
+        checkOpen();
+        if (initialText.length() < windowLength) return initialText;
+        StringBuilder result = new StringBuilder(initialText.length()
+            + Math.max(0, Math.min(textLength, LanguageModel.MAX_PRESIZE)));
+        result.append(initialText);
+        char[] window = new char[windowLength];
+        for (int i = 1; i <= textLength; i++) {
+            result.getChars(result.length() - windowLength, result.length(), window, 0);
+            int w = find(window, 0);
+            if (w == NIL) break;
+            result.append(getRandomChar(w));
+        }
+        return result.toString();
+    }
+
+    /** Returns the number of windows (contexts) in this model. */
+    public int getSize() {
+        return numOfWindows;
+    }
+
+    /** Returns the number of bytes of off-heap memory used by this model. */
+    public long offHeapBytes() {
+        if (closed) return 0;
+        return (long) windows.capacity() * 2 + (long) firstEntry.capacity() * 4
+            + (long) totalCount.capacity() * 4 + (long) index.capacity() * 4
+            + (long) entryChr.capacity() * 2 + (long) entryCount.capacity() * 4
+            + (long) entryCp.capacity() * 8 + (long) entryNext.capacity() * 4;
+    }
+
+    /** Frees the off-heap memory of this model. The model can not be used afterwards. */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (ByteBuffer buffer : memory.values()) release(buffer);
+        memory.clear();
+        windows = null;
+        firstEntry = null;
+        totalCount = null;
+        index = null;
+        entryChr = null;
+        entryCount = null;
+        entryCp = null;
+        entryNext = null;
+    }
+
+    // Returns a random successor of the given window.
+    private char getRandomChar(int w) {
+        double rand = randomGenerator.nextDouble();
+        int e = firstEntry.get(w);
+        while (e != NIL) {
+            if (rand < entryCp.get(e)) return entryChr.get(e);
+            e = entryNext.get(e);
+        }
+        return ' '; // will never reach this return
+    }
+
+    // Computes the commulative probabilities of the successors of all the windows.
+    private void calculateProbabilities() {
+        for (int w = 0; w < numOfWindows; w++) {
+            int total = totalCount.get(w);
+            double comCP = 0;
+            int e = firstEntry.get(w);
+            while (e != NIL) {
+                comCP += (double) entryCount.get(e) / total;
+                entryCp.put(e, comCP);
+                e = entryNext.get(e);
+            }
+        }
+    }
+
+    // Counts one more occurrence of chr after window w. A new character is
+    // added to the beginning of the chain, like List.update does.
+    private void update(int w, char chr) {
+        int e = firstEntry.get(w);
+        while (e != NIL) {
+            if (entryChr.get(e) == chr) {
+                entryCount.put(e, entryCount.get(e) + 1);
+                totalCount.put(w, totalCount.get(w) + 1);
+                return;
+            }
+            e = entryNext.get(e);
+        }
+        if (numOfEntries == entryChr.capacity()) growEntries();
+        totalCount.put(w, totalCount.get(w) + 1);
+        e = numOfEntries++;
+        entryChr.put(e, chr);
+        entryCount.put(e, 1);
+        entryCp.put(e, 0);
+        entryNext.put(e, firstEntry.get(w));
+        firstEntry.put(w, e);
+    }
+
+    // Returns the index of the given window (starting at window[start]), or NIL.
+    private int find(char[] window, int start) {
+        int mask = index.capacity() - 1;
+        int slot = hash(window, start) & mask;
+        while (true) {
+            int w = index.get(slot) - 1;
+            if (w < 0) return NIL;
+            if (matches(w, window, start)) return w;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Returns the index of the given window, adding it to the model if needed.
+    private int findOrAdd(char[] window, int start) {
+        int mask = index.capacity() - 1;
+        int slot = hash(window, start) & mask;
+        while (true) {
+            int w = index.get(slot) - 1;
+            if (w < 0) break;
+            if (matches(w, window, start)) return w;
+            slot = (slot + 1) & mask;
+        }
+        if (numOfWindows == firstEntry.capacity()) growWindows();
+        // allocates a larger index before the model changes, so a failed allocation
+        // leaves the model as it was
+        IntBuffer grown = (2 * (numOfWindows + 1) > index.capacity()) ? intBuffer(2L * index.capacity()) : null;
+        int w = numOfWindows++;
+        for (int i = 0; i < windowLength; i++) {
+            windows.put(w * windowLength + i, window[(start + i) % windowLength]);
+        }
+        firstEntry.put(w, NIL);
+        totalCount.put(w, 0);
+        if (grown != null) {
+            rehash(grown);
+        } else {
+            index.put(slot, w + 1);
+        }
+        return w;
+    }
+
+    private boolean matches(int w, char[] window, int start) {
+        int offset = w * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (windows.get(offset + i) != window[(start + i) % windowLength]) return false;
+        }
+        return true;
+    }
+
+    private int hash(char[] window, int start) {
+        int h = 0;
+        for (int i = 0; i < windowLength; i++) {
+            h = 31 * h + window[(start + i) % windowLength];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private int storedHash(int w) {
+        int h = 0;
+        int offset = w * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            h = 31 * h + windows.get(offset + i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // Rebuilds the hash index into the given (empty) buffer, whose capacity is a
+    // power of 2, and frees the old index.
+    private void rehash(IntBuffer to) {
+        int mask = to.capacity() - 1;
+        for (int w = 0; w < numOfWindows; w++) {
+            int slot = storedHash(w) & mask;
+            while (to.get(slot) != 0) slot = (slot + 1) & mask;
+            to.put(slot, w + 1);
+        }
+        free(index);
+        index = to;
+    }
+
+    // Doubles the window buffers. All the new buffers are allocated before any of the
+    // old ones is freed, so a failed allocation leaves the model as it was.
+    private void growWindows() {
+        long capacity = 2L * firstEntry.capacity();
+        CharBuffer newWindows = null;
+        IntBuffer newFirstEntry = null;
+        IntBuffer newTotalCount = null;
+        try {
+            newWindows = charBuffer(Math.multiplyExact(capacity, (long) windowLength));
+            newFirstEntry = intBuffer(capacity);
+            newTotalCount = intBuffer(capacity);
+        } catch (RuntimeException | Error e) {
+            free(newWindows, newFirstEntry, newTotalCount);
+            throw e;
+        }
+        windows = copy(windows, newWindows);
+        firstEntry = copy(firstEntry, newFirstEntry);
+        totalCount = copy(totalCount, newTotalCount);
+    }
+
+    // Doubles the entry buffers, allocating all of them before freeing any.
+    private void growEntries() {
+        long capacity = 2L * entryChr.capacity();
+        CharBuffer newChr = null;
+        IntBuffer newCount = null;
+        DoubleBuffer newCp = null;
+        IntBuffer newNext = null;
+        try {
+            newChr = charBuffer(capacity);
+            newCount = intBuffer(capacity);
+            newCp = doubleBuffer(capacity);
+            newNext = intBuffer(capacity);
+        } catch (RuntimeException | Error e) {
+            free(newChr, newCount, newCp, newNext);
+            throw e;
+        }
+        entryChr = copy(entryChr, newChr);
+        entryCount = copy(entryCount, newCount);
+        entryCp = copy(entryCp, newCp);
+        entryNext = copy(entryNext, newNext);
+    }
+
+    // Copies a buffer to a larger one, and frees the memory of the first.
+    private CharBuffer copy(CharBuffer from, CharBuffer to) {
+        from.clear();
+        to.put(from);
+        to.clear();
+        free(from);
+        return to;
+    }
+
+    private IntBuffer copy(IntBuffer from, IntBuffer to) {
+        from.clear();
+        to.put(from);
+        to.clear();
+        free(from);
+        return to;
+    }
+
+    private DoubleBuffer copy(DoubleBuffer from, DoubleBuffer to) {
+        from.clear();
+        to.put(from);
+        to.clear();
+        free(from);
+        return to;
+    }
+
+    private CharBuffer charBuffer(long chars) {
+        ByteBuffer buffer = allocate(Math.multiplyExact(chars, 2L));
+        CharBuffer view = buffer.asCharBuffer();
+        memory.put(view, buffer);
+        return view;
+    }
+
+    private IntBuffer intBuffer(long ints) {
+        ByteBuffer buffer = allocate(Math.multiplyExact(ints, 4L));
+        IntBuffer view = buffer.asIntBuffer();
+        memory.put(view, buffer);
+        return view;
+    }
+
+    private DoubleBuffer doubleBuffer(long doubles) {
+        ByteBuffer buffer = allocate(Math.multiplyExact(doubles, 8L));
+        DoubleBuffer view = buffer.asDoubleBuffer();
+        memory.put(view, buffer);
+        return view;
+    }
+
+    private static ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("the model is too large: a buffer of " + bytes + " bytes is needed");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    // Frees the memory of the given views now, if possible. Null views are skipped.
+    private void free(Buffer... views) {
+        for (Buffer view : views) {
+            if (view == null) continue;
+            ByteBuffer buffer = memory.remove(view);
+            if (buffer != null) release(buffer);
+        }
+    }
+
+    private static void release(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) return; // the cleaner of the buffer frees it
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            // the cleaner of the buffer frees it
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("the model was closed");
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/** Trains language models of all the window lengths from 1 to K in a single pass over a
+ *  corpus, and reports, for each window length, the number of windows (contexts), the
+ *  estimated memory footprint of the model, and its cross entropy on a held-out text.
+ *  Usage: java OrderSweep K corpus heldOut */
+public class OrderSweep {
+
+    // Estimated sizes, in bytes, of the objects of a model (64-bit JVM, compressed oops):
+    // a window costs a String, its char array, a HashMap entry, a table slot and a List;
+    // a successor costs a Node and a CharData.
+    private static final int WINDOW_BYTES = 24 + 16 + 32 + 8 + 24;
+    private static final int SUCCESSOR_BYTES = 24 + 32;
+
+    /** Trains models of the window lengths 1 to maxOrder from the given corpus, reading
+     *  it once. Model k - 1 of the returned array has window length k, and is the same as
+     *  a model of that window length that was trained with train. */
+    public static LanguageModel[] trainOrders(String fileName, int maxOrder, int seed) {
+        return trainOrders(fileName, maxOrder, seed, null);
+    }
+
+    /** Same as trainOrders(fileName, maxOrder, seed), with models that normalize with the
+     *  given normalizer (or not, if it is null), like LanguageModel.normalizeWith. */
+    public static LanguageModel[] trainOrders(String fileName, int maxOrder, int seed, Normalizer normalizer) {
+        LanguageModel[] models = new LanguageModel[maxOrder];
+        CorpusCounter[] counters = new CorpusCounter[maxOrder];
+        for (int k = 1; k <= maxOrder; k++) {
+            models[k - 1] = new LanguageModel(k, seed);
+            models[k - 1].normalizeWith(normalizer);
+            counters[k - 1] = new CorpusCounter(models[k - 1].CharDataMap, k);
+            counters[k - 1].setNormalizer(normalizer);
+        }
+        try (Reader in = CorpusCounter.open(fileName)) {
+            char[] buf = new char[1 << 16];
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) != -1) {
+                for (CorpusCounter counter : counters) {
+                    counter.accept(buf, 0, n);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int k = 0; k < maxOrder; k++) {
+            counters[k].finish();
+            models[k].computeProbabilities();
+        }
+        return models;
+    }
+
+    /** Returns the estimated number of bytes that the map of the given model takes. */
+    public static long footprint(LanguageModel model) {
+        long bytes = 0;
+        for (String key : model.CharDataMap.keySet()) {
+            bytes += WINDOW_BYTES + 2L * key.length() + (long) SUCCESSOR_BYTES * model.CharDataMap.get(key).getSize();
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) {
+        int maxOrder = Integer.parseInt(args[0]);
+        String corpus = args[1];
+        String heldOut = args[2];
+        LanguageModel[] models = trainOrders(corpus, maxOrder, 20);
+        // the second cross entropy charges the unscored characters, like Classifier does
+        System.out.println("order\tcontexts\tbytes\tcross entropy\tunseen\tcross entropy with unseen");
+        for (LanguageModel model : models) {
+            Score score = model.score(heldOut);
+            long unseen = score.getUnseenContexts() + score.getUnseenChars();
+            double withUnseen = -(score.logProbability() + unseen * Classifier.UNSEEN_LOG_PROB)
+                / (score.getScored() + unseen) / Math.log(2);
+            System.out.printf("%d\t%d\t%d\t%.4f\t%d\t%.4f%n", model.windowLength, model.CharDataMap.size(),
+                footprint(model), score.crossEntropy(), unseen, withUnseen);
+        }
+    }
+}
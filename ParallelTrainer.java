@@ -0,0 +1,279 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Counts the windows of many corpus files in parallel, on a work stealing pool.
+ *  Each file is counted on its own, so no window crosses from one file to the next.
+ *  Large files are split into pieces of about PIECE_SIZE bytes; each piece starts at the
+ *  first byte of a non whitespace character, and is counted starting with the window
+ *  that precedes it, so that a split file is counted exactly like a whole one.
+ *  Compressed (.gz) files can not be split, and are counted as one piece.
+ *  The pieces are counted into separate maps, which are added together in file order. */
+public class ParallelTrainer {
+
+    // Files larger than twice this number of bytes are split into pieces of about this size
+    static final int PIECE_SIZE = 4 << 20;
+
+    /** Returns the names of the files in the given directory whose names match the
+     *  given glob pattern, sorted by name. */
+    public static String[] list(String dir, String glob) {
+        ArrayList<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(new File(dir).toPath(), glob)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) names.add(file.toString());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not open " + dir, e);
+        }
+        Collections.sort(names);
+        return names.toArray(new String[0]);
+    }
+
+    /** Counts the windows of the given files into a new map, and returns it.
+     *  The probabilities of the returned lists are not computed. */
+    public static HashMap<String, List> count(String[] fileNames, int windowLength) {
+        return count(fileNames, windowLength, PIECE_SIZE);
+    }
+
+    /** Same as count(fileNames, windowLength), splitting the files into pieces of about
+     *  pieceSize bytes. The result does not depend on the piece size. */
+    public static HashMap<String, List> count(String[] fileNames, int windowLength, int pieceSize) {
+        ArrayList<Piece> pieces = new ArrayList<Piece>();
+        for (String fileName : fileNames) {
+            split(fileName, windowLength, pieceSize, pieces);
+        }
+        if (pieces.isEmpty()) return new HashMap<String, List>();
+        return ForkJoinPool.commonPool().invoke(new CountTask(pieces, 0, pieces.size(), windowLength));
+    }
+
+    // A part of a corpus file: the bytes from start to end, preceded by the given window
+    // (or null if the piece is the beginning of the file)
+    static class Piece {
+        final String fileName;
+        final long start;
+        final long end;
+        final boolean last;
+        char[] window;
+
+        Piece(String fileName, long start, long end, boolean last) {
+            this.fileName = fileName;
+            this.start = start;
+            this.end = end;
+            this.last = last;
+        }
+    }
+
+    // Counts the pieces from lo to hi, by splitting the range in two halves,
+    // and adds the counts of the second half to those of the first one.
+    private static class CountTask extends RecursiveTask<HashMap<String, List>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<Piece> pieces;
+        private final int lo;
+        private final int hi;
+        private final int windowLength;
+
+        CountTask(ArrayList<Piece> pieces, int lo, int hi, int windowLength) {
+            this.pieces = pieces;
+            this.lo = lo;
+            this.hi = hi;
+            this.windowLength = windowLength;
+        }
+
+        protected HashMap<String, List> compute() {
+            if (hi - lo == 1) return countPiece(pieces.get(lo), windowLength);
+            int mid = (lo + hi) >>> 1;
+            CountTask second = new CountTask(pieces, mid, hi, windowLength);
+            second.fork();
+            HashMap<String, List> map = new CountTask(pieces, lo, mid, windowLength).compute();
+            LanguageModel.addCounts(map, second.join());
+            return map;
+        }
+    }
+
+    // Counts the windows of the given piece into a new map.
+    private static HashMap<String, List> countPiece(Piece piece, int windowLength) {
+        HashMap<String, List> map = new HashMap<String, List>();
+        CorpusCounter counter = new CorpusCounter(map, windowLength);
+        if (piece.window != null) counter.prime(piece.window);
+        try (Reader in = open(piece)) {
+            char[] buf = new char[1 << 14];
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) != -1) {
+                counter.accept(buf, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (piece.last) counter.finish();
+        else counter.flush();
+        return map;
+    }
+
+    // Opens the given piece for reading. A compressed file is always a single piece.
+    // The piece is streamed from the file, and not read into memory.
+    static Reader open(Piece piece) {
+        if (isCompressed(piece.fileName)) return CorpusCounter.open(piece.fileName);
+        InputStream in = new LimitedInputStream(openAt(piece.fileName, piece.start), piece.end - piece.start);
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    // Opens the given file for reading, from the given position on.
+    private static InputStream openAt(String fileName, long position) {
+        try {
+            FileChannel channel = FileChannel.open(new File(fileName).toPath());
+            try {
+                channel.position(position);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return Channels.newInputStream(channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // An input stream that ends after the given number of bytes of another stream.
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b != -1) remaining--;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static boolean isCompressed(String fileName) {
+        return fileName.endsWith(".gz");
+    }
+
+    // Splits the given file into pieces of about pieceSize bytes, and adds them to the
+    // given list.
+    static void split(String fileName, int windowLength, int pieceSize, ArrayList<Piece> pieces) {
+        if (!new File(fileName).isFile()) {
+            throw new IllegalArgumentException("Could not open " + fileName);
+        }
+        long length = new File(fileName).length();
+        // the bytes that are read back to find the window that precedes a piece
+        int back = 4 * windowLength + 4;
+        long start = 0;
+        char[] window = null;
+        while (true) {
+            long end = length;
+            char[] next = null;
+            if (length - start > 2L * pieceSize && !isCompressed(fileName)) {
+                end = boundary(fileName, start + pieceSize, length);
+                // a piece can not start before the first window of the file is complete
+                while (end < length && (next = windowBefore(fileName, end, back, windowLength)) == null) {
+                    end = boundary(fileName, end + 1, length);
+                }
+            }
+            Piece piece = new Piece(fileName, start, end, end == length);
+            piece.window = window;
+            pieces.add(piece);
+            if (end == length) return;
+            window = next;
+            start = end;
+        }
+    }
+
+    // Returns the position of the first byte of a non whitespace character at or after
+    // the given position, or length if there is no such character. A character starts at
+    // any byte that is not a UTF-8 continuation byte.
+    private static long boundary(String fileName, long from, long length) {
+        try (InputStream in = new BufferedInputStream(openAt(fileName, from), 1 << 12)) {
+            byte[] chr = new byte[4];
+            long position = from;
+            int b;
+            for (; (b = in.read()) != -1; position++) {
+                if ((b & 0xC0) == 0x80) continue; // a continuation byte
+                if (b < 0x80) {
+                    if (b > 0 && !Character.isWhitespace((char) b)) return position;
+                    continue;
+                }
+                // decodes the multi byte character, to check if it is a whitespace
+                int len = (b >= 0xF0) ? 4 : (b >= 0xE0) ? 3 : 2;
+                chr[0] = (byte) b;
+                in.mark(len);
+                int n = in.readNBytes(chr, 1, len - 1);
+                in.reset();
+                int c = new String(chr, 0, 1 + n, StandardCharsets.UTF_8).codePointAt(0);
+                if (!Character.isWhitespace(c)) return position;
+            }
+            return length;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the windowLength characters that end just before the given position, or null
+    // if fewer characters precede it.
+    private static char[] windowBefore(String fileName, long position, int back, int windowLength) {
+        long from = Math.max(0, position - back);
+        byte[] bytes = readBytes(fileName, from, (int) (position - from));
+        int skip = 0;
+        // skips a character that started before from
+        while (from > 0 && skip < bytes.length && (bytes[skip] & 0xC0) == 0x80) skip++;
+        String chars = new String(bytes, skip, bytes.length - skip, StandardCharsets.UTF_8);
+        if (chars.length() < windowLength) return null;
+        return chars.substring(chars.length() - windowLength).toCharArray();
+    }
+
+    private static byte[] readBytes(String fileName, long from, int len) {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            byte[] bytes = new byte[len];
+            file.seek(from);
+            file.readFully(bytes);
+            return bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
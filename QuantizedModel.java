@@ -0,0 +1,156 @@
+import java.util.Random;
+
+/** A compact, read only copy of a trained language model, for generating texts.
+ *  The probabilities p are not kept, and the commulative probabilities are kept as 16-bit
+ *  fixed point numbers: for each window, one char array holds its successor characters,
+ *  followed by their commulative thresholds (in units of 1/65536, minus 1).
+ *  Every successor keeps a threshold range of at least one unit, so no successor that was
+ *  seen in the corpus becomes impossible. Sampling draws a random 16-bit integer, and
+ *  compares it to the thresholds.
+ *  The windows are kept in a front coded ContextDictionary, and the successors of each
+ *  window are found by its rank in the dictionary. */
+public class QuantizedModel {
+
+    // The number of units in a probability of 1
+    private static final int ONE = 1 << 16;
+
+    // The windows of this model
+    private final ContextDictionary windows;
+
+    // The successors and thresholds of each window, by its rank
+    private final char[][] successors;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The normalizer of the initial texts (the normalizer of the copied model), or null
+    private final Normalizer normalizer;
+
+    // The random number generator used by this model.
+    private final Random randomGenerator;
+
+    /** Constructs a quantized copy of the given (trained) model, that generates texts
+     *  with the given seed value. */
+    public QuantizedModel(LanguageModel model, int seed) {
+        this.windowLength = model.windowLength;
+        this.normalizer = model.getNormalizer();
+        this.randomGenerator = new Random(seed);
+        this.windows = new ContextDictionary(model.CharDataMap.keySet().toArray(new String[0]), windowLength);
+        this.successors = new char[windows.getSize()][];
+        for (String key : model.CharDataMap.keySet()) {
+            CharData[] probs = model.CharDataMap.get(key).toArray();
+            int n = probs.length;
+            char[] packed = new char[2 * n];
+            int previous = 0;
+            for (int i = 0; i < n; i++) {
+                int threshold = (int) Math.round(probs[i].cp * ONE);
+                // at least one unit for this successor, and one for each of the next ones
+                threshold = Math.max(threshold, previous + 1);
+                threshold = Math.min(threshold, ONE - (n - 1 - i));
+                if (i == n - 1) threshold = ONE;
+                packed[i] = probs[i].chr;
+                packed[n + i] = (char) (threshold - 1);
+                previous = threshold;
+            }
+            successors[windows.rank(key)] = packed;
+        }
+    }
+
+    /** Returns the probability that the given character follows the given window,
+     *  according to this model. */
+    public double probability(String window, char chr) {
+        int rank = windows.rank(window);
+        if (rank == -1) return 0;
+        char[] packed = successors[rank];
+        int n = packed.length / 2;
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            int threshold = packed[n + i] + 1;
+            if (packed[i] == chr) return (double) (threshold - previous) / ONE;
+            previous = threshold;
+        }
+        return 0;
+    }
+
+    /** Generates a random text, like LanguageModel.generate (so the initial text is
+     *  normalized if the copied model has a normalizer). */
+    public String generate(String initialText, int textLength) {
+        if (normalizer != null) initialText = normalizer.normalize(initialText);
+        StringBuilder result = new StringBuilder(initialText.length()
+            + Math.max(0, Math.min(textLength, LanguageModel.MAX_PRESIZE)));
+        generate(initialText, textLength, result);
+        return result.toString();
+    }
+
+    /** Generates a random text, like LanguageModel.generate, and appends it to the given
+     *  builder. If the builder has enough capacity, no objects are allocated. The initial
+     *  text is not normalized: it must already be normalized if the copied model has a
+     *  normalizer. */
+    public void generate(CharSequence initialText, int textLength, StringBuilder result) {
+        result.append(initialText);
+        if (initialText.length() < windowLength) return;
+        for (int i = 1; i <= textLength; i++) {
+            int rank = windows.rank(result, result.length() - windowLength);
+            if (rank == -1) break;
+            result.append(getRandomChar(successors[rank]));
+        }
+    }
+
+    // Returns a random successor from the given successors and thresholds.
+    private char getRandomChar(char[] packed) {
+        int rand = randomGenerator.nextInt(ONE);
+        int n = packed.length / 2;
+        for (int i = 0; i < n; i++) {
+            if (rand <= packed[n + i]) return packed[i];
+        }
+        return ' '; // will never reach this return
+    }
+
+    /** Returns the estimated number of bytes that the map of this model takes
+     *  (compare with OrderSweep.footprint). */
+    public long footprint() {
+        long bytes = windows.bytes() + 16 + 4L * successors.length;
+        for (char[] packed : successors) {
+            bytes += 16 + 2L * packed.length;
+        }
+        return bytes;
+    }
+
+    /** Returns the Kullback-Leibler divergence, in bits per character, of this model from
+     *  the given exact model: the divergence of each window, weighted by the number of
+     *  times the window occurred in the corpus. */
+    public double divergence(LanguageModel exact) {
+        double sum = 0;
+        long total = 0;
+        for (String key : exact.CharDataMap.keySet()) {
+            CharData[] probs = exact.CharDataMap.get(key).toArray();
+            int count = 0;
+            double kl = 0;
+            for (CharData cd : probs) {
+                count += cd.count;
+                kl += cd.p * Math.log(cd.p / probability(key, cd.chr));
+            }
+            sum += kl * count;
+            total += count;
+        }
+        return (total == 0) ? 0 : sum / total / Math.log(2);
+    }
+
+    /** Trains a model of the given window length on each of the given corpora, and prints
+     *  the memory footprints of the exact and quantized models, and the divergence.
+     *  Usage: java QuantizedModel windowLength corpus1 corpus2 ... */
+    public static void main(String[] args) {
+        int windowLength = Integer.parseInt(args[0]);
+        System.out.println("corpus\texact bytes\tquantized bytes\tKL divergence (bits/char)"
+            + "\tdictionary bytes/window\tHashMap bytes/window");
+        for (int i = 1; i < args.length; i++) {
+            LanguageModel model = new LanguageModel(windowLength, 20);
+            model.train(args[i]);
+            QuantizedModel quantized = new QuantizedModel(model, 20);
+            System.out.println(args[i] + "\t" + OrderSweep.footprint(model) + "\t" + quantized.footprint()
+                + "\t" + quantized.divergence(model)
+                + "\t" + (double) quantized.windows.bytes() / quantized.windows.getSize()
+                + "\t" + ContextDictionary.hashMapBytes(windowLength));
+        }
+    }
+}
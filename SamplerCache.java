@@ -0,0 +1,128 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A size bounded cache of samplers, one per window of a language model.
+ *  A sampler is built from the list of a window the first time the window is used: its
+ *  characters and commulative probabilities are copied into two arrays, and sampling
+ *  searches them with SuccessorSearch (a binary search for long lists).
+ *  The cache is split into SEGMENTS segments by the hash of the window, and each segment
+ *  is a LinkedHashMap in access order, which evicts its least recently used sampler.
+ *  Threads that use windows of different segments do not wait for each other.
+ *  A sampler picks the same character as LanguageModel.getRandomChar for the same number. */
+public class SamplerCache {
+
+    // The number of segments (a power of 2)
+    static final int SEGMENTS = 16;
+
+    // The segments of this cache
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** The successors of a window, ready for sampling. Like ArrayCharList, the
+     *  arrays hold the list in reverse order. */
+    public static class Sampler {
+        final char[] chars;
+        final double[] cp;
+
+        Sampler(List probs) {
+            int n = probs.getSize();
+            chars = new char[n];
+            cp = new double[n];
+            ListIterator itr = probs.listIterator(0);
+            for (int i = n - 1; i >= 0; i--) {
+                CharData cd = itr.next();
+                chars[i] = cd.chr;
+                cp[i] = cd.cp;
+            }
+        }
+
+        /** Returns the first character whose commulative probability is greater than
+         *  the given number, or ' ' if there is no such character. */
+        public char sample(double rand) {
+            int position = SuccessorSearch.cpPosition(cp, chars.length, rand);
+            return (position == -1) ? ' ' : chars[position];
+        }
+    }
+
+    private class Segment extends LinkedHashMap<String, Sampler> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, Sampler> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    /** Constructs a cache that holds at most (about) maxSamplers samplers. */
+    public SamplerCache(int maxSamplers) {
+        int capacity = Math.max(1, maxSamplers / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /** Returns the sampler of the given window, whose list is probs, building it if
+     *  it is not in the cache. */
+    public Sampler get(String window, List probs) {
+        int h = window.hashCode();
+        Segment segment = segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+        Sampler sampler;
+        synchronized (segment) {
+            sampler = segment.get(window);
+        }
+        if (sampler != null) {
+            hits.increment();
+            return sampler;
+        }
+        misses.increment();
+        // built outside the lock; two threads may build the same sampler, which is harmless
+        sampler = new Sampler(probs);
+        synchronized (segment) {
+            segment.put(window, sampler);
+        }
+        return sampler;
+    }
+
+    /** Removes all the samplers from this cache. */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /** Returns the fraction of lookups that found their sampler in the cache. */
+    public double hitRate() {
+        long total = hits.sum() + misses.sum();
+        return (total == 0) ? 0 : (double) hits.sum() / total;
+    }
+
+    /** Returns the number of lookups that found their sampler in the cache. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Returns the number of samplers that were built. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Returns the number of samplers that were evicted. */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
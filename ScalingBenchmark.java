@@ -0,0 +1,78 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/** Measures how training and generation scale with the size of the corpus, the size of its
+ *  alphabet and the window length, on synthetic corpora (see SyntheticCorpus).
+ *  Each sweep varies one parameter, and keeps the others at their base values. For each
+ *  model, prints the number of windows, the training time and speed, the peak heap used
+ *  while training (after a full collection, so it includes the model and the garbage of
+ *  training), and the generation speed, as tab separated columns that can be charted.
+ *  Usage: java ScalingBenchmark [maxMegaChars] [order] */
+public class ScalingBenchmark {
+
+    // The base values of the parameters
+    private static final long BASE_CHARS = 4L << 20;
+    private static final int BASE_ALPHABET = 32;
+    private static final int BASE_WINDOW = 4;
+
+    // The number of characters generated by each model
+    private static final int GENERATED = 1 << 20;
+
+    public static void main(String[] args) {
+        long maxChars = (args.length > 0 ? Long.parseLong(args[0]) : 16) << 20;
+        int order = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        System.out.println("sweep\tchars\talphabet\twindow\twindows\ttrain ms\ttrain Mchars/s"
+            + "\tpeak heap MB\tgenerate Mchars/s");
+        // warms up the JIT
+        run("warmup", 1 << 20, BASE_ALPHABET, BASE_WINDOW, order, false);
+        for (long chars = 1 << 20; chars <= maxChars; chars *= 4) {
+            run("chars", chars, BASE_ALPHABET, BASE_WINDOW, order, true);
+        }
+        for (int alphabet = 8; alphabet <= 256; alphabet *= 2) {
+            run("alphabet", BASE_CHARS, alphabet, BASE_WINDOW, order, true);
+        }
+        for (int window = 1; window <= 8; window++) {
+            run("window", BASE_CHARS, BASE_ALPHABET, window, order, true);
+        }
+    }
+
+    // Trains a model on a synthetic corpus with the given parameters, generates a text
+    // with it, and prints the measurements if print is true.
+    private static void run(String sweep, long chars, int alphabetSize, int windowLength, int order,
+                            boolean print) {
+        LanguageModel model = new LanguageModel(windowLength, 20);
+        System.gc();
+        resetPeakHeap();
+        long t0 = System.nanoTime();
+        model.train(new SyntheticCorpus(chars, alphabetSize, order, 20));
+        long t1 = System.nanoTime();
+        long peak = peakHeap();
+        // starts with the first window of the corpus, which the model knows
+        char[] initial = new char[windowLength];
+        new SyntheticCorpus(windowLength, alphabetSize, order, 20).read(initial, 0, windowLength);
+        long t2 = System.nanoTime();
+        String text = model.generate(new String(initial), GENERATED);
+        long t3 = System.nanoTime();
+        if (print) {
+            System.out.printf("%s\t%d\t%d\t%d\t%d\t%d\t%.2f\t%.1f\t%.2f%n", sweep, chars, alphabetSize,
+                windowLength, model.CharDataMap.size(), (t1 - t0) / 1000000, chars * 1000.0 / (t1 - t0),
+                peak / 1048576.0, (text.length() - windowLength) * 1000.0 / (t3 - t2));
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    // Returns the sum of the peak usages of the heap pools since they were reset
+    private static long peakHeap() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) bytes += pool.getPeakUsage().getUsed();
+        }
+        return bytes;
+    }
+}
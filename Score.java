@@ -0,0 +1,70 @@
+/** The result of scoring a text against a language model.
+ *  Holds the number of characters that were scored, the sum of their log probabilities,
+ *  and the number of characters that could not be scored: characters whose window is not
+ *  in the model (unseen contexts), and characters that never followed their window in the
+ *  corpus (unseen characters).
+ *  The log probabilities are summed as fixed point numbers (in units of 2^-24 nats), so a
+ *  sum does not depend on the order in which the characters were scored. */
+public class Score {
+
+    // The number of fixed point units in one nat
+    static final double UNIT = 1 << 24;
+
+    // The number of characters that were scored
+    long scored;
+
+    // The sum of the log probabilities of the scored characters, in fixed point units
+    long logProbability;
+
+    // The number of characters whose window is not in the model
+    long unseenContexts;
+
+    // The number of characters that never followed their window in the corpus
+    long unseenChars;
+
+    /** Adds the given score to this score. */
+    public void add(Score other) {
+        scored += other.scored;
+        logProbability += other.logProbability;
+        unseenContexts += other.unseenContexts;
+        unseenChars += other.unseenChars;
+    }
+
+    /** Returns the number of characters that were scored. */
+    public long getScored() {
+        return scored;
+    }
+
+    /** Returns the number of characters whose window is not in the model. */
+    public long getUnseenContexts() {
+        return unseenContexts;
+    }
+
+    /** Returns the number of characters that never followed their window in the corpus. */
+    public long getUnseenChars() {
+        return unseenChars;
+    }
+
+    /** Returns the sum of the (natural) log probabilities of the scored characters. */
+    public double logProbability() {
+        return logProbability / UNIT;
+    }
+
+    /** Returns the cross entropy of the scored characters, in bits per character. */
+    public double crossEntropy() {
+        if (scored == 0) return 0;
+        return -logProbability() / scored / Math.log(2);
+    }
+
+    /** Returns the perplexity of the model on the scored characters. */
+    public double perplexity() {
+        return Math.pow(2, crossEntropy());
+    }
+
+    /** Returns a textual representation of this score. */
+    public String toString() {
+        return "(scored " + scored + ", log probability " + logProbability()
+            + ", cross entropy " + crossEntropy() + ", unseen contexts " + unseenContexts
+            + ", unseen chars " + unseenChars + ")";
+    }
+}
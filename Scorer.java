@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Scores texts against a trained language model.
+ *  For each window of the model, the scorer keeps the successor characters and their
+ *  log probabilities (as fixed point numbers, see Score), which are computed once,
+ *  when the scorer is constructed. The windows are keyed by CharBuffers, so scoring a
+ *  character is a single lookup with a view of the window, which allocates nothing.
+ *  Every character of the text that follows a full window is scored. If the model has a
+ *  normalizer, the text is normalized first, like the corpus was. */
+public class Scorer {
+
+    // For each window, its successor characters and their log probabilities
+    private final HashMap<CharBuffer, Successors> windows = new HashMap<CharBuffer, Successors>();
+
+    // The window length of the model
+    private final int windowLength;
+
+    // The normalizer of the model, or null
+    private final Normalizer normalizer;
+
+    /** Constructs a scorer of the given (trained) model. */
+    public Scorer(LanguageModel model) {
+        this.windowLength = model.windowLength;
+        this.normalizer = model.getNormalizer();
+        for (String key : model.CharDataMap.keySet()) {
+            CharData[] probs = model.CharDataMap.get(key).toArray();
+            char[] c = new char[probs.length];
+            long[] logp = new long[probs.length];
+            for (int i = 0; i < probs.length; i++) {
+                c[i] = probs[i].chr;
+                logp[i] = Math.round(Math.log(probs[i].p) * Score.UNIT);
+            }
+            windows.put(CharBuffer.wrap(key), new Successors(c, logp));
+        }
+    }
+
+    /** Scores the text that is read from the given reader. */
+    public Score score(Reader in) {
+        Score score = new Score();
+        score(in, null, score);
+        return score;
+    }
+
+    /** Scores the text in the given file. A large file is split into pieces,
+     *  which are scored in parallel. The result does not depend on the split.
+     *  (A text that is normalized can not be split, since the normalization of a piece
+     *  depends on the text before it, so it is scored by the calling thread.) */
+    public Score score(String fileName) {
+        return score(fileName, ParallelTrainer.PIECE_SIZE);
+    }
+
+    // Same as score(fileName), splitting the file into pieces of about pieceSize bytes.
+    Score score(String fileName, int pieceSize) {
+        if (normalizer != null) {
+            try (Reader in = CorpusCounter.open(fileName)) {
+                return score(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        ArrayList<ParallelTrainer.Piece> pieces = new ArrayList<ParallelTrainer.Piece>();
+        ParallelTrainer.split(fileName, windowLength, pieceSize, pieces);
+        return ForkJoinPool.commonPool().invoke(new ScoreTask(pieces, 0, pieces.size()));
+    }
+
+    // Scores the pieces from lo to hi, by splitting the range in two halves
+    private class ScoreTask extends RecursiveTask<Score> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<ParallelTrainer.Piece> pieces;
+        private final int lo;
+        private final int hi;
+
+        ScoreTask(ArrayList<ParallelTrainer.Piece> pieces, int lo, int hi) {
+            this.pieces = pieces;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected Score compute() {
+            if (hi - lo == 1) {
+                ParallelTrainer.Piece piece = pieces.get(lo);
+                Score score = new Score();
+                try (Reader in = ParallelTrainer.open(piece)) {
+                    score(in, piece.window, score);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return score;
+            }
+            int mid = (lo + hi) >>> 1;
+            ScoreTask second = new ScoreTask(pieces, mid, hi);
+            second.fork();
+            Score score = new ScoreTask(pieces, lo, mid).compute();
+            score.add(second.join());
+            return score;
+        }
+    }
+
+    // Scores the text that is read from the given reader into the given score.
+    // If first is not null, it is the window that precedes the text.
+    private void score(Reader in, char[] first, Score score) {
+        char[] window = new char[windowLength];
+        CharBuffer key = CharBuffer.wrap(window);
+        Normalizer.Cursor cursor = (normalizer == null) ? null : normalizer.cursor();
+        int filled = 0;
+        if (first != null) {
+            System.arraycopy(first, 0, window, 0, windowLength);
+            filled = windowLength;
+        }
+        char[] buf = new char[1 << 14];
+        try {
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    char c = buf[i];
+                    if (cursor != null) {
+                        int normalized = cursor.apply(c);
+                        if (normalized == Normalizer.DROP) continue;
+                        c = (char) normalized;
+                    }
+                    if (filled < windowLength) {
+                        window[filled++] = c;
+                        continue;
+                    }
+                    scoreChar(key, c, score);
+                    if (windowLength > 0) {
+                        System.arraycopy(window, 1, window, 0, windowLength - 1);
+                        window[windowLength - 1] = c;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Scores the character c, which follows the given window, into the given score.
+    // The window is a view of the remaining characters of the buffer, which can change
+    // between calls.
+    void scoreChar(CharBuffer window, char c, Score score) {
+        Successors successors = windows.get(window);
+        if (successors == null) {
+            score.unseenContexts++;
+            return;
+        }
+        for (int i = 0; i < successors.chars.length; i++) {
+            if (successors.chars[i] == c) {
+                score.scored++;
+                score.logProbability += successors.logProbs[i];
+                return;
+            }
+        }
+        score.unseenChars++;
+    }
+
+    // The successor characters of a window, and their log probabilities
+    private static class Successors {
+        final char[] chars;
+        final long[] logProbs;
+
+        Successors(char[] chars, long[] logProbs) {
+            this.chars = chars;
+            this.logProbs = logProbs;
+        }
+    }
+}
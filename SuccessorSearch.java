@@ -0,0 +1,56 @@
+/** Searches over the parallel arrays of an ArrayCharList.
+ *  Both searches run from the last array position down to the first one, which is the
+ *  order of the list. The character search is unrolled, so that four comparisons are
+ *  made in each iteration of the loop. The commulative probabilities are increasing in
+ *  list order, so above a certain list size they are searched with a binary search.
+ *  The crossover sizes can be measured with SuccessorSearchBenchmark. */
+public class SuccessorSearch {
+
+    // From this list size and up, cpPosition uses a binary search instead of a linear scan
+    static final int BINARY_SEARCH_THRESHOLD = 16;
+
+    /** Returns the highest position i < size such that chr[i] == c, or -1. */
+    public static int lastPosition(char[] chr, int size, char c) {
+        int i = size - 1;
+        for (; i >= 3; i -= 4) {
+            if (chr[i] == c) return i;
+            if (chr[i - 1] == c) return i - 1;
+            if (chr[i - 2] == c) return i - 2;
+            if (chr[i - 3] == c) return i - 3;
+        }
+        for (; i >= 0; i--) {
+            if (chr[i] == c) return i;
+        }
+        return -1;
+    }
+
+    /** Returns the highest position i < size such that rand < cp[i], or -1.
+     *  The values cp[size - 1], ..., cp[0] must be increasing. */
+    public static int cpPosition(double[] cp, int size, double rand) {
+        return cpPosition(cp, size, rand, BINARY_SEARCH_THRESHOLD);
+    }
+
+    /** Same as cpPosition, using a binary search if size is at least the given threshold,
+     *  and a linear scan otherwise. */
+    public static int cpPosition(double[] cp, int size, double rand, int threshold) {
+        if (size < threshold) return cpPositionLinear(cp, size, rand);
+        if (!(rand < cp[0])) return -1;
+        // rand < cp[lo] holds throughout the search
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (rand < cp[mid]) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /** Same as cpPosition, using a linear scan. */
+    public static int cpPositionLinear(double[] cp, int size, double rand) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (rand < cp[i]) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.Random;
+
+/** Measures the successor searches of SuccessorSearch against plain linear scans,
+ *  for increasing list sizes, and prints the time per search in nanoseconds.
+ *  Usage: java SuccessorSearchBenchmark [maxSize] */
+public class SuccessorSearchBenchmark {
+
+    // The number of searches made for each measurement
+    private static final int SEARCHES = 2_000_000;
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        Random random = new Random(20);
+        System.out.println("size\tchar linear\tchar unrolled\tcp linear\tcp binary");
+        for (int size = 1; size <= maxSize; size *= 2) {
+            ArrayCharList list = new ArrayCharList();
+            for (int i = 0; i < size; i++) {
+                list.addFirst((char) ('!' + i));
+                for (int j = random.nextInt(5); j > 0; j--) list.update((char) ('!' + i));
+            }
+            list.calculateProbabilities();
+            char[] keys = new char[1024];
+            double[] rands = new double[1024];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = (char) ('!' + random.nextInt(size));
+                rands[i] = random.nextDouble();
+            }
+            // the first round warms up the JIT
+            for (int round = 0; round < 2; round++) {
+                long t0 = System.nanoTime();
+                long sink = 0;
+                for (int i = 0; i < SEARCHES; i++) sink += linear(list.chr, size, keys[i & 1023]);
+                long t1 = System.nanoTime();
+                for (int i = 0; i < SEARCHES; i++) sink += SuccessorSearch.lastPosition(list.chr, size, keys[i & 1023]);
+                long t2 = System.nanoTime();
+                for (int i = 0; i < SEARCHES; i++) sink += SuccessorSearch.cpPositionLinear(list.cp, size, rands[i & 1023]);
+                long t3 = System.nanoTime();
+                // a threshold of 0 always uses the binary search
+                for (int i = 0; i < SEARCHES; i++) sink += SuccessorSearch.cpPosition(list.cp, size, rands[i & 1023], 0);
+                long t4 = System.nanoTime();
+                if (round == 1) {
+                    System.out.printf("%d\t%.2f\t%.2f\t%.2f\t%.2f%n", size,
+                        (double) (t1 - t0) / SEARCHES, (double) (t2 - t1) / SEARCHES,
+                        (double) (t3 - t2) / SEARCHES, (double) (t4 - t3) / SEARCHES);
+                }
+                if (sink == 42) System.out.println(); // keeps the results alive
+            }
+        }
+    }
+
+    private static int linear(char[] chr, int size, char c) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (chr[i] == c) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** A synthetic corpus of any length, that is generated while it is read, so it is never
+ *  stored. The same arguments always give the same text.
+ *  The text uses alphabetSize characters (the most common English characters first, see
+ *  ALPHABET). Each character depends on the order characters before it: the alphabet is
+ *  rotated by a hash of these characters, by less than an eighth of its size, and the next
+ *  character is drawn from the rotated alphabet with Zipfian probabilities, so the rank r
+ *  character (counting from 1) has a probability proportional to 1 / r^exponent.
+ *  The characters of the whole text therefore stay roughly Zipfian, and a language model
+ *  whose window length is at least order finds a skewed, repeating distribution after
+ *  every window, like it does in natural text. */
+public class SyntheticCorpus extends Reader {
+
+    // The characters of the alphabets, in order. Alphabets larger than this string
+    // continue with the characters from U+00C0.
+    static final String ALPHABET = " etaoinsrhldcumfpgwybvkxjqz"
+        + "ETAOINSRHLDCUMFPGWYBVKXJQZ0123456789.,;:!?'\"-()";
+
+    // The characters of this corpus, and the commulative Zipfian probabilities of the ranks,
+    // in reverse order (the order of SuccessorSearch.cpPosition)
+    private final char[] alphabet;
+    private final double[] cp;
+
+    // The number of characters that each character depends on
+    private final int order;
+
+    // The number of different rotations
+    private final int rotations;
+
+    // The last order characters, as a ring, and the position of the oldest one
+    private final char[] context;
+    private int oldest;
+
+    // The number of characters left to generate
+    private long remaining;
+
+    private final Random randomGenerator;
+
+    /** Constructs a corpus of the given length (in characters), alphabet size and order,
+     *  with a Zipf exponent of 1. */
+    public SyntheticCorpus(long length, int alphabetSize, int order, long seed) {
+        this(length, alphabetSize, order, 1.0, seed);
+    }
+
+    /** Constructs a corpus of the given length (in characters), alphabet size, order and
+     *  Zipf exponent, that is generated with the given seed value. */
+    public SyntheticCorpus(long length, int alphabetSize, int order, double exponent, long seed) {
+        if (alphabetSize < 1 || alphabetSize > 0x10000 - 0xC0 + ALPHABET.length()) {
+            throw new IllegalArgumentException("alphabet size " + alphabetSize + " is out of range");
+        }
+        if (order < 0) throw new IllegalArgumentException("negative order " + order);
+        this.alphabet = alphabet(alphabetSize);
+        this.cp = new double[alphabetSize];
+        double sum = 0;
+        for (int r = 1; r <= alphabetSize; r++) sum += 1 / Math.pow(r, exponent);
+        double comCP = 0;
+        for (int r = 1; r <= alphabetSize; r++) {
+            comCP += 1 / Math.pow(r, exponent) / sum;
+            cp[alphabetSize - r] = comCP;
+        }
+        cp[0] = 1;
+        this.order = order;
+        this.rotations = Math.max(1, alphabetSize / 8);
+        this.context = new char[order];
+        this.remaining = length;
+        this.randomGenerator = new Random(seed);
+        for (int i = 0; i < order; i++) context[i] = alphabet[0];
+    }
+
+    /** Returns the first alphabetSize characters of the alphabets. */
+    public static char[] alphabet(int alphabetSize) {
+        char[] chars = new char[alphabetSize];
+        for (int i = 0; i < alphabetSize; i++) {
+            chars[i] = (i < ALPHABET.length()) ? ALPHABET.charAt(i) : (char) (0xC0 + i - ALPHABET.length());
+        }
+        return chars;
+    }
+
+    public int read(char[] cbuf, int off, int len) {
+        if (remaining == 0) return -1;
+        int n = (int) Math.min(len, remaining);
+        for (int i = off; i < off + n; i++) {
+            cbuf[i] = next();
+        }
+        remaining -= n;
+        return n;
+    }
+
+    public void close() {
+        remaining = 0;
+    }
+
+    // Generates the next character
+    private char next() {
+        int hash = 0;
+        for (int i = 0; i < order; i++) {
+            hash = 31 * hash + context[(oldest + i) % order];
+        }
+        hash *= 0x9E3779B9; // spreads the hash over the high bits
+        int rotation = (int) (((hash >>> 8) * (long) rotations) >>> 24);
+        int rank = cp.length - 1 - SuccessorSearch.cpPosition(cp, cp.length, randomGenerator.nextDouble());
+        char c = alphabet[(rank + rotation) % alphabet.length];
+        if (order > 0) {
+            context[oldest] = c;
+            oldest = (oldest + 1) % order;
+        }
+        return c;
+    }
+
+    /** Writes a synthetic corpus to the standard output, in UTF-8.
+     *  Usage: java SyntheticCorpus length alphabetSize order [seed] */
+    public static void main(String[] args) {
+        long length = Long.parseLong(args[0]);
+        int alphabetSize = Integer.parseInt(args[1]);
+        int order = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 20;
+        try (Reader in = new SyntheticCorpus(length, alphabetSize, order, seed);
+             Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            char[] buf = new char[1 << 16];
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A read only copy of a trained language model, that keeps frequently used windows
+ *  ready for sampling, and the rest of the windows compressed.
+ *  The windows are kept in a ContextDictionary. The successors of every window are kept
+ *  compressed, as variable length (character, counter) pairs, and are decoded when the
+ *  window is used. A window that is used often is promoted to the hot tier: an array,
+ *  indexed by rank, of prebuilt samplers (successor characters and commulative
+ *  probabilities). Uses are counted for one in SAMPLE_RATE lookups only, and the counters
+ *  are halved periodically; hot windows whose counters fall low are demoted.
+ *  A sampler is computed exactly like LanguageModel.calculateProbabilities, so with the
+ *  same seed this model generates the same texts as the model it was built from, whatever
+ *  windows are hot.
+ *  Threads can share a model and generate concurrently: sampling only reads the tiers,
+ *  and the lock of the model is held only to count a sampled use, and to promote or
+ *  demote windows. */
+public class TieredModel {
+
+    // One in SAMPLE_RATE lookups is counted (must be a power of 2)
+    static final int SAMPLE_RATE = 8;
+
+    // A window is promoted when its counter reaches PROMOTE, and demoted (when the
+    // counters are halved) if its counter is below DEMOTE
+    static final int PROMOTE = 4;
+    static final int DEMOTE = 1;
+
+    // The windows of this model
+    private final ContextDictionary windows;
+
+    // The compressed successors of each window, by rank
+    private final byte[][] cold;
+
+    // The hot samplers, by rank (null for a cold window)
+    private final AtomicReferenceArray<Sampler> hot;
+
+    // The maximal number of hot windows, and the current number (guarded by this
+    // model's lock)
+    private final int maxHot;
+    private int hotSize;
+
+    // The sampled use counters of the windows, by rank (guarded by this model's lock)
+    private final int[] uses;
+
+    // Counts the lookups, for sampling and for halving the counters
+    private final AtomicLong lookups = new AtomicLong();
+    private final long decayPeriod;
+
+    // Statistics (the promotions and demotions are guarded by this model's lock)
+    private final LongAdder hotHits = new LongAdder();
+    private long promotions;
+    private long demotions;
+
+    // The window length used in this model.
+    private final int windowLength;
+
+    // The normalizer of the initial texts (the normalizer of the copied model), or null
+    private final Normalizer normalizer;
+
+    // The random number generator used by this model.
+    private final Random randomGenerator;
+
+    // The successors of a window, ready for sampling
+    private static class Sampler {
+        final char[] chars;
+        final double[] cp;
+
+        Sampler(char[] chars, double[] cp) {
+            this.chars = chars;
+            this.cp = cp;
+        }
+    }
+
+    /** Constructs a tiered copy of the given (trained) model, with at most maxHot hot
+     *  windows, that generates texts with the given seed value. */
+    public TieredModel(LanguageModel model, int maxHot, int seed) {
+        this.windowLength = model.windowLength;
+        this.normalizer = model.getNormalizer();
+        this.randomGenerator = new Random(seed);
+        this.maxHot = maxHot;
+        this.windows = new ContextDictionary(model.CharDataMap.keySet().toArray(new String[0]), windowLength);
+        int size = windows.getSize();
+        this.cold = new byte[size][];
+        this.hot = new AtomicReferenceArray<Sampler>(size);
+        this.uses = new int[size];
+        this.decayPeriod = Math.max(1 << 16, 4L * size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String key : model.CharDataMap.keySet()) {
+            out.reset();
+            ListIterator itr = model.CharDataMap.get(key).listIterator(0);
+            while (itr.hasNext()) {
+                CharData cd = itr.next();
+                writeVarInt(out, cd.chr);
+                writeVarInt(out, cd.count);
+            }
+            cold[windows.rank(key)] = out.toByteArray();
+        }
+    }
+
+    /** Generates a random text, like LanguageModel.generate (so the initial text is
+     *  normalized if the copied model has a normalizer). */
+    public String generate(String initialText, int textLength) {
+        if (normalizer != null) initialText = normalizer.normalize(initialText);
+        if (initialText.length() < windowLength) return initialText;
+        StringBuilder result = new StringBuilder(initialText);
+        for (int i = 1; i <= textLength; i++) {
+            int rank = windows.rank(result, result.length() - windowLength);
+            if (rank == -1) break;
+            Sampler sampler = sampler(rank);
+            double rand = randomGenerator.nextDouble();
+            char next = ' ';
+            for (int j = 0; j < sampler.chars.length; j++) {
+                if (rand < sampler.cp[j]) {
+                    next = sampler.chars[j];
+                    break;
+                }
+            }
+            result.append(next);
+        }
+        return result.toString();
+    }
+
+    /** Returns the number of hot windows. */
+    public synchronized int getHotSize() {
+        return hotSize;
+    }
+
+    /** Returns the fraction of lookups that found a hot window. */
+    public double hotHitRate() {
+        long n = lookups.get();
+        return (n == 0) ? 0 : (double) hotHits.sum() / n;
+    }
+
+    /** Returns the number of promotions to the hot tier. */
+    public synchronized long getPromotions() {
+        return promotions;
+    }
+
+    /** Returns the number of demotions from the hot tier. */
+    public synchronized long getDemotions() {
+        return demotions;
+    }
+
+    // Returns the sampler of the window with the given rank, and counts the use.
+    // Takes the lock only for the sampled lookups, and for halving the counters.
+    private Sampler sampler(int rank) {
+        long n = lookups.incrementAndGet();
+        Sampler sampler = hot.get(rank);
+        if (sampler != null) {
+            hotHits.increment();
+        } else {
+            sampler = decode(cold[rank]);
+        }
+        boolean counted = (n & (SAMPLE_RATE - 1)) == 0;
+        boolean decays = n % decayPeriod == 0;
+        if (counted || decays) count(rank, sampler, counted, decays);
+        return sampler;
+    }
+
+    // Halves the counters if decays, and counts a use of the window with the given rank
+    // if counted, promoting the window (with the given sampler) if it is used often.
+    private synchronized void count(int rank, Sampler sampler, boolean counted, boolean decays) {
+        if (decays) decay();
+        if (counted && ++uses[rank] >= PROMOTE && hot.get(rank) == null && hotSize < maxHot) {
+            hot.set(rank, sampler);
+            hotSize++;
+            promotions++;
+        }
+    }
+
+    // Halves all the counters, and demotes the hot windows that are no longer used much.
+    // Called with the lock held.
+    private void decay() {
+        for (int rank = 0; rank < uses.length; rank++) {
+            uses[rank] >>= 1;
+            if (hot.get(rank) != null && uses[rank] < DEMOTE) {
+                hot.set(rank, null);
+                hotSize--;
+                demotions++;
+            }
+        }
+    }
+
+    // Decodes compressed successors, and computes their commulative probabilities
+    // like LanguageModel.calculateProbabilities.
+    private static Sampler decode(byte[] bytes) {
+        int n = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] >= 0) n++; // the last byte of a variable length number
+        }
+        n /= 2;
+        char[] chars = new char[n];
+        int[] counts = new int[n];
+        int position = 0;
+        int numOfLetters = 0;
+        for (int i = 0; i < n; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            chars[i] = (char) value;
+            value = 0;
+            shift = 0;
+            do {
+                b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            counts[i] = value;
+            numOfLetters += value;
+        }
+        double[] cp = new double[n];
+        double comCP = 0;
+        for (int i = 0; i < n; i++) {
+            comCP += (double) counts[i] / numOfLetters;
+            cp[i] = comCP;
+        }
+        return new Sampler(chars, cp);
+    }
+
+    // Writes a non negative number as 7-bit groups, lowest first; the high bit of a byte
+    // is set if more bytes follow.
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
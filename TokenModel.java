@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/** A language model of tokens (words) rather than characters. A token is a maximal run of
+ *  non whitespace characters, and a window is a sequence of windowLength tokens.
+ *  The corpus is tokenized while it is read, and every distinct token is interned once,
+ *  as an int id. The windows are kept in an open addressing table of ints: a window is
+ *  its windowLength token ids, followed by the index of its first successor and the sum
+ *  of its successor counters. The successors of all the windows are kept in one pool of
+ *  (token id, counter, next) ints, as a linked list per window, newest first (like List).
+ *  So a window costs windowLength + 2 ints in the table, and a successor 3 ints. */
+public class TokenModel {
+
+    // The offsets, after the token ids of a window in the table, of its first successor and
+    // of the sum of its counters. A slot whose sum is 0 is empty.
+    private static final int HEAD = 0;
+    private static final int TOTAL = 1;
+
+    // Marks the end of a successor list
+    private static final int NONE = -1;
+
+    // The interned tokens, and their ids
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private final ArrayList<String> tokens = new ArrayList<String>();
+
+    // The table of windows: capacity slots of windowLength + 2 ints each
+    private int[] table;
+    private int capacity;
+    private int size;
+
+    // The pool of successors: token id, counter and the index of the next successor
+    private int[] successors = new int[3 * 1024];
+    private int successorCount;
+
+    // The window length used in this model.
+    final int windowLength;
+
+    // The random number generator used by this model.
+    private final Random randomGenerator;
+
+    /** Constructs a token model with the given window length (in tokens), that generates
+     *  texts with the given seed value. */
+    public TokenModel(int windowLength, int seed) {
+        if (windowLength < 1) throw new IllegalArgumentException("window length must be positive");
+        this.windowLength = windowLength;
+        this.randomGenerator = new Random(seed);
+        this.capacity = 1024;
+        this.table = new int[capacity * (windowLength + 2)];
+        clearTable();
+    }
+
+    /** Builds the model from the text in the given file (the corpus). */
+    public void train(String fileName) {
+        try (Reader in = CorpusCounter.open(fileName)) {
+            train(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Builds the model from the text that is read from the given reader.
+     *  The reader is not closed. */
+    public void train(Reader in) {
+        int[] window = new int[windowLength];
+        int filled = 0;
+        StringBuilder token = new StringBuilder();
+        char[] buf = new char[1 << 14];
+        int n;
+        try {
+            while (true) {
+                n = in.read(buf, 0, buf.length);
+                for (int i = 0; i < n; i++) {
+                    char c = buf[i];
+                    if (!Character.isWhitespace(c)) {
+                        token.append(c);
+                        continue;
+                    }
+                    if (token.length() == 0) continue;
+                    filled = accept(window, filled, intern(token.toString()));
+                    token.setLength(0);
+                }
+                if (n == -1) break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (token.length() > 0) accept(window, filled, intern(token.toString()));
+    }
+
+    // Counts the given token as a successor of the window (unless the window is not full
+    // yet), slides the window, and returns the number of its tokens.
+    private int accept(int[] window, int filled, int id) {
+        if (filled < windowLength) {
+            window[filled] = id;
+            return filled + 1;
+        }
+        count(window, id);
+        System.arraycopy(window, 1, window, 0, windowLength - 1);
+        window[windowLength - 1] = id;
+        return filled;
+    }
+
+    // Counts the given token as a successor of the given window.
+    private void count(int[] window, int id) {
+        int slot = find(window);
+        if (slot == NONE) {
+            if (2 * (size + 1) > capacity) resize();
+            slot = insert(window);
+        }
+        int base = slot * (windowLength + 2) + windowLength;
+        table[base + TOTAL]++;
+        for (int s = table[base + HEAD]; s != NONE; s = successors[3 * s + 2]) {
+            if (successors[3 * s] == id) {
+                successors[3 * s + 1]++;
+                return;
+            }
+        }
+        if (3 * (successorCount + 1) > successors.length) {
+            successors = Arrays.copyOf(successors, 2 * successors.length);
+        }
+        int s = successorCount++;
+        successors[3 * s] = id;
+        successors[3 * s + 1] = 1;
+        successors[3 * s + 2] = table[base + HEAD];
+        table[base + HEAD] = s;
+    }
+
+    /** Generates a random text of tokens, like LanguageModel.generate: continues the given
+     *  initial text with at most textLength tokens, separated by single spaces. If the
+     *  initial text has fewer than windowLength tokens, it is returned as is; generation
+     *  stops early at a window that was not seen in the corpus. */
+    public String generate(String initialText, int textLength) {
+        ArrayList<String> initial = tokenize(initialText);
+        if (initial.size() < windowLength) return initialText;
+        int[] window = new int[windowLength];
+        for (int i = 0; i < windowLength; i++) {
+            Integer id = ids.get(initial.get(initial.size() - windowLength + i));
+            if (id == null) return initialText;
+            window[i] = id;
+        }
+        StringBuilder result = new StringBuilder(initialText);
+        for (int i = 0; i < textLength; i++) {
+            int slot = find(window);
+            if (slot == NONE) break;
+            int id = getRandomToken(slot);
+            result.append(' ').append(tokens.get(id));
+            System.arraycopy(window, 1, window, 0, windowLength - 1);
+            window[windowLength - 1] = id;
+        }
+        return result.toString();
+    }
+
+    // Returns a random successor of the window in the given slot, with the probability of
+    // its counter.
+    private int getRandomToken(int slot) {
+        int base = slot * (windowLength + 2) + windowLength;
+        int rand = randomGenerator.nextInt(table[base + TOTAL]);
+        int s = table[base + HEAD];
+        while (rand >= successors[3 * s + 1]) {
+            rand -= successors[3 * s + 1];
+            s = successors[3 * s + 2];
+        }
+        return successors[3 * s];
+    }
+
+    /** Returns the probability that the given token follows the given window (windowLength
+     *  tokens, separated by whitespace), according to this model. */
+    public double probability(String window, String token) {
+        ArrayList<String> words = tokenize(window);
+        Integer id = ids.get(token);
+        if (words.size() != windowLength || id == null) return 0;
+        int[] key = new int[windowLength];
+        for (int i = 0; i < windowLength; i++) {
+            Integer wordId = ids.get(words.get(i));
+            if (wordId == null) return 0;
+            key[i] = wordId;
+        }
+        int slot = find(key);
+        if (slot == NONE) return 0;
+        int base = slot * (windowLength + 2) + windowLength;
+        for (int s = table[base + HEAD]; s != NONE; s = successors[3 * s + 2]) {
+            if (successors[3 * s] == id) return (double) successors[3 * s + 1] / table[base + TOTAL];
+        }
+        return 0;
+    }
+
+    /** Returns the number of windows in this model. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the number of distinct tokens in this model. */
+    public int vocabularySize() {
+        return tokens.size();
+    }
+
+    /** Returns the number of bytes that the window table and the successor pool take. */
+    public long footprint() {
+        return 16 + 4L * table.length + 16 + 4L * successors.length;
+    }
+
+    // Returns the tokens of the given text, split at whitespace characters exactly like
+    // train splits the corpus.
+    private static ArrayList<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+                if (start == -1) start = i;
+            } else if (start != -1) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Returns the id of the given token, interning it if it is new.
+    private int intern(String token) {
+        Integer id = ids.get(token);
+        if (id == null) {
+            id = tokens.size();
+            ids.put(token, id);
+            tokens.add(token);
+        }
+        return id;
+    }
+
+    // Returns the slot of the given window, or NONE if it is not in the table.
+    private int find(int[] window) {
+        int stride = windowLength + 2;
+        int mask = capacity - 1;
+        for (int slot = hash(window) & mask; ; slot = (slot + 1) & mask) {
+            int base = slot * stride;
+            if (table[base + windowLength + TOTAL] == 0) return NONE;
+            if (equals(table, base, window)) return slot;
+        }
+    }
+
+    // Puts the given window, with no successors, in a free slot, and returns the slot.
+    private int insert(int[] window) {
+        int stride = windowLength + 2;
+        int mask = capacity - 1;
+        int slot = hash(window) & mask;
+        while (table[slot * stride + windowLength + TOTAL] != 0) slot = (slot + 1) & mask;
+        System.arraycopy(window, 0, table, slot * stride, windowLength);
+        size++;
+        return slot;
+    }
+
+    // Doubles the capacity of the table.
+    private void resize() {
+        int stride = windowLength + 2;
+        int[] old = table;
+        int oldCapacity = capacity;
+        capacity *= 2;
+        table = new int[capacity * stride];
+        clearTable();
+        size = 0;
+        int[] window = new int[windowLength];
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int base = slot * stride;
+            if (old[base + windowLength + TOTAL] == 0) continue;
+            System.arraycopy(old, base, window, 0, windowLength);
+            int newBase = insert(window) * stride;
+            table[newBase + windowLength + HEAD] = old[base + windowLength + HEAD];
+            table[newBase + windowLength + TOTAL] = old[base + windowLength + TOTAL];
+        }
+    }
+
+    // Marks all the slots of the table as empty.
+    private void clearTable() {
+        int stride = windowLength + 2;
+        for (int slot = 0; slot < capacity; slot++) {
+            table[slot * stride + windowLength + HEAD] = NONE;
+        }
+    }
+
+    private int hash(int[] window) {
+        int h = 0;
+        for (int id : window) h = 31 * h + id;
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean equals(int[] data, int base, int[] window) {
+        for (int i = 0; i < windowLength; i++) {
+            if (data[base + i] != window[i]) return false;
+        }
+        return true;
+    }
+
+    /** Trains a token model on the given corpus, and prints its size and a text generated
+     *  from the given initial text.
+     *  Usage: java TokenModel windowLength corpus initialText textLength */
+    public static void main(String[] args) {
+        int windowLength = Integer.parseInt(args[0]);
+        TokenModel model = new TokenModel(windowLength, 20);
+        model.train(args[1]);
+        System.out.println(model.vocabularySize() + " tokens, " + model.getSize() + " windows, "
+            + model.footprint() + " bytes");
+        System.out.println(model.generate(args[2], Integer.parseInt(args[3])));
+    }
+}